@@ -1,11 +1,20 @@
 import de.undercouch.gradle.tasks.download.Download
 import org.glavo.build.Arch
+import org.glavo.build.ArchiveCodec
 import org.glavo.build.Product
+import org.glavo.build.tasks.AbstractBuildNative
+import org.glavo.build.tasks.AbstractTransformIDE
 import org.glavo.build.tasks.BuildNative
+import org.glavo.build.tasks.BuildNativeMultiArch
+import org.glavo.build.tasks.DiffArchives
 import org.glavo.build.util.Utils
 import org.glavo.build.tasks.ExtractIDE
 import org.glavo.build.tasks.GenerateReadMe
+import org.glavo.build.tasks.NativeTarget
 import org.glavo.build.tasks.TransformIDE
+import org.glavo.build.tasks.TransformIDEMultiArch
+import org.glavo.build.tasks.TransformTarget
+import org.glavo.build.tasks.VerifyTransformedIDE
 
 plugins {
     id("de.undercouch.download") version "5.6.0"
@@ -24,6 +33,28 @@ val Download.outputFile: File
 fun nativesFile(arch: Arch) = project.file("resources/natives-linux-${arch.normalize()}.zip")
 
 val arches = listOf(Arch.RISCV64, Arch.LOONGARCH64)
+
+// tar, gzip, zstd or xz
+val transformCodec = findProperty("transform.codec")?.let { ArchiveCodec.valueOf(it.toString().uppercase()) } ?: ArchiveCodec.GZIP
+
+// For local testing, the transformed IDE can be installed into build/target/<name>/, with -Ptransform.archive=false
+// the archive is not written at all
+val transformToDirectory = findProperty("transform.directory")?.toString()?.toBoolean() ?: false
+val transformToArchive = findProperty("transform.archive")?.toString()?.toBoolean() ?: true
+
+// Reproducible outputs, see https://reproducible-builds.org/docs/source-date-epoch/
+val sourceDateEpoch: Long? = (findProperty("sourceDateEpoch") ?: System.getenv("SOURCE_DATE_EPOCH"))?.toString()?.toLong()
+
+// Directory with the outputs of a previous build, diffReproducible tasks check that the outputs are byte-identical
+val reproducibleReferenceDir: File? = findProperty("reproducible.reference")?.let { file(it.toString()) }
+
+fun registerDiffReproducible(name: String, actual: File) {
+    val reference = reproducibleReferenceDir ?: return
+    tasks.create<DiffArchives>("diffReproducible-$name") {
+        expectedFile.set(reference.resolve(actual.name))
+        actualFile.set(actual)
+    }
+}
 val products = listOf(Product.IDEA_IC, Product.IDEA_IU)
 
 val jdkProperties: Map<String, String> = Utils.loadProperties(configDir.file("jdk.properties"))
@@ -64,51 +95,125 @@ for (product in products) {
                 product.getFileNameBase(productVersion, productBaseArch)
             )
         )
+        findProperty("extract.parallel")?.let { parallel.set(it.toString().toBoolean()) }
+        storeDir.set(layout.buildDirectory.dir("cache/extract"))
+        findProperty("extract.storeMaxSize")?.let { storeMaxSize.set(it.toString().toLong()) }
     }
 
-    for (targetArch in arches) {
-        tasks.create<TransformIDE>("transform${product.productCode}-${targetArch.normalize()}") {
-            dependsOn(downloadProductTask)
+    fun TransformTarget.configureTarget(targetArch: Arch, targetRoot: Directory) {
+        downloadJDKTasks[targetArch]?.let { jdkArchive.set(it.outputFile) }
+
+        ideTargetArch.set(targetArch)
+        ideNativesZipFile.set(nativesFile(targetArch))
+        if (transformToArchive) {
+            targetFile.set(targetRoot.file(product.getFileNameBase(targetVersion, targetArch) + "." + transformCodec.extension))
+        }
+        if (transformToDirectory) {
+            targetDir.set(targetRoot.dir(product.getFileNameBase(targetVersion, targetArch)))
+        }
+    }
 
-            inputs.properties(productProperties)
+    fun AbstractTransformIDE.configureTransform() {
+        dependsOn(downloadProductTask)
 
-            downloadJDKTasks[targetArch]?.let {
-                dependsOn(it)
-                jdkArchive.set(it.outputFile)
-            }
+        inputs.properties(productProperties)
 
-            ideBaseArch.set(productBaseArch)
-            ideProduct.set(product)
-            ideBaseTar.set(downloadProductTask.outputFile)
+        ideBaseArch.set(productBaseArch)
+        ideProduct.set(product)
+        ideBaseTar.set(downloadProductTask.outputFile)
+
+        findProperty("transform.compressionThreads")?.let { compressionThreads.set(it.toString().toInt()) }
+        outputCodec.set(transformCodec)
+        findProperty("transform.incremental")?.let { incremental.set(it.toString().toBoolean()) }
+        findProperty("transform.failOnUncoveredNatives")?.let { failOnUncoveredNatives.set(it.toString().toBoolean()) }
+        findProperty("transform.scanJars")?.let { scanJars.set(it.toString().toBoolean()) }
+        findProperty("transform.index")?.let { writeIndex.set(it.toString().toBoolean()) }
+        sourceDateEpoch?.let { this.sourceDateEpoch.set(it) }
+        tarCacheDir.set(layout.buildDirectory.dir("cache/tar"))
+        findProperty("transform.tarCacheMaxSize")?.let { tarCacheMaxSize.set(it.toString().toLong()) }
+        // Natives are read from resources/, see updateNatives
+        mustRunAfter("updateNatives")
+    }
 
-            ideTargetArch.set(targetArch)
-            ideNativesZipFile.set(nativesFile(targetArch))
-            targetFile.set(
-                layout.buildDirectory.dir("target").get()
-                    .file(product.getFileNameBase(targetVersion, targetArch) + ".tar.gz")
-            )
+    val targetRoot = layout.buildDirectory.dir("target").get()
+    for (targetArch in arches) {
+        val transformTask = tasks.create<TransformIDE>("transform${product.productCode}-${targetArch.normalize()}") {
+            configureTransform()
+            downloadJDKTasks[targetArch]?.let { dependsOn(it) }
+            configureTarget(targetArch, targetRoot)
+        }
+        if (!transformToArchive) {
+            continue
+        }
+
+        registerDiffReproducible("${product.productCode}-${targetArch.normalize()}", transformTask.targetFile.get().asFile)
+
+        tasks.create<VerifyTransformedIDE>("verify${product.productCode}-${targetArch.normalize()}") {
+            dependsOn(transformTask)
+            archive.set(transformTask.targetFile)
+            this.targetArch.set(targetArch)
+            findProperty("verify.ignoredPaths")?.let { ignoredPaths.set(it.toString().split(',').map { path -> path.trim() }) }
+            reportFile.set(layout.buildDirectory.file("reports/verify/${product.productCode}-${targetArch.normalize()}.txt"))
+        }
+    }
+
+    // Writes to its own directory, the outputs of the per-arch tasks must not overlap with it
+    val multiArchTargetRoot = layout.buildDirectory.dir("target/multiarch").get()
+    tasks.create<TransformIDEMultiArch>("transform${product.productCode}") {
+        configureTransform()
+        for (targetArch in arches) {
+            downloadJDKTasks[targetArch]?.let { dependsOn(it) }
+            target { configureTarget(targetArch, multiArchTargetRoot) }
         }
     }
 }
 
-for (arch in Arch.values()) {
+fun NativeTarget.configureNative(arch: Arch, output: File) {
     val isCross = arch != Arch.current()
-    val archName = arch.normalize()
     fun findArchProperty(name: String): String? = findProperty("$arch.$name")?.toString()
 
-    tasks.create<BuildNative>("buildNative-$archName") {
-        nativeProjectsRoot.set(project.file("native"))
-        outputFile.set(nativesFile(arch))
-
-        targetArch.set(arch)
-        zig.set(findArchProperty("zig"))
-        cc.set(findArchProperty("cc") ?: (if (isCross) arch.getTriple(null) + "-gcc" else "gcc"))
-        cxx.set(findArchProperty("cxx") ?: (if (isCross) arch.getTriple(null) + "-g++" else "g++"))
-        make.set(findArchProperty("make") ?: "make")
-        cMake.set(findArchProperty("cmake") ?: "cmake")
-        go.set(findArchProperty("go") ?: "go")
-        cargo.set(findArchProperty("cargo") ?: "cargo")
+    outputFile.set(output)
+
+    targetArch.set(arch)
+    zig.set(findArchProperty("zig"))
+    cc.set(findArchProperty("cc") ?: (if (isCross) arch.getTriple(null) + "-gcc" else "gcc"))
+    cxx.set(findArchProperty("cxx") ?: (if (isCross) arch.getTriple(null) + "-g++" else "g++"))
+    make.set(findArchProperty("make") ?: "make")
+    cMake.set(findArchProperty("cmake") ?: "cmake")
+    go.set(findArchProperty("go") ?: "go")
+    cargo.set(findArchProperty("cargo") ?: "cargo")
+}
+
+fun AbstractBuildNative.configureBuildNative() {
+    nativeProjectsRoot.set(project.file("native"))
+    findProperty("native.workers")?.let { workers.set(it.toString().toInt()) }
+    findProperty("native.cache")?.let { cache.set(it.toString().toBoolean()) }
+    findProperty("native.cacheMaxSize")?.let { cacheMaxSize.set(it.toString().toLong()) }
+    sourceDateEpoch?.let { this.sourceDateEpoch.set(it) }
+}
+
+for (arch in Arch.values()) {
+    tasks.create<BuildNative>("buildNative-${arch.normalize()}") {
+        configureBuildNative()
+        configureNative(arch, nativesFile(arch))
     }
+    registerDiffReproducible("natives-${arch.normalize()}", nativesFile(arch))
+}
+
+// Writes to build/natives/ rather than resources/, which only the per-arch tasks produce, see updateNatives
+val buildNativeTask = tasks.create<BuildNativeMultiArch>("buildNative") {
+    configureBuildNative()
+    val nativeArches = findProperty("native.arches")?.toString()?.split(',')?.map { Arch.of(it.trim()) }
+        ?: Arch.values().toList()
+    for (arch in nativeArches) {
+        target { configureNative(arch, layout.buildDirectory.file("natives/${nativesFile(arch).name}").get().asFile) }
+    }
+}
+
+// Copies the natives built by buildNative into resources/, where the transforms read them from
+tasks.create<Copy>("updateNatives") {
+    from(buildNativeTask)
+    into(nativesFile(Arch.current()).parentFile)
 }
 
 tasks.create<GenerateReadMe>("generateReadMe") {
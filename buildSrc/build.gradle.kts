@@ -7,11 +7,43 @@ tasks.compileJava {
 
 }
 
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + configurations.runtimeClasspath.get()
+    runtimeClasspath += sourceSets.main.get().output + configurations.runtimeClasspath.get()
+}
+
+tasks.named<JavaCompile>(jmh.compileJavaTaskName) {
+    options.release.set(21)
+}
+
 dependencies {
     implementation(gradleApi())
     implementation("org.glavo.kala:kala-common:0.74.0")
     implementation("org.glavo.kala:kala-template:0.1.0")
     implementation("com.google.code.gson:gson:2.11.0")
     implementation("org.apache.commons:commons-compress:1.27.1")
+    implementation("commons-io:commons-io:2.16.1")
+    implementation("com.github.luben:zstd-jni:1.5.6-8")
+    implementation("org.tukaani:xz:1.10")
     implementation("net.java.dev.jna:jna:5.14.0")
+
+    testImplementation(platform("org.junit:junit-bom:5.11.3"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+// ./gradlew -p buildSrc jmh [-Pjmh.include=<regex>]
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args(findProperty("jmh.include")?.toString() ?: ".*", "-prof", "gc", "-rf", "json",
+        "-rff", layout.buildDirectory.file("jmh-result.json").get().asFile.absolutePath)
 }
@@ -0,0 +1,231 @@
+package org.glavo.build.benchmark;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.glavo.build.Arch;
+import org.glavo.build.Product;
+import org.glavo.build.tasks.TransformIDE;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Synthetic IDE, JDK and natives archives shaped like the real ones, so that the benchmarks run offline.
+ */
+public final class Fixtures {
+    public static final Arch BASE_ARCH = Arch.AARCH64;
+    public static final Product PRODUCT = Product.IDEA_IC;
+    public static final String PREFIX = "idea-IC-0.0/";
+
+    private static final short EM_AARCH64 = 183;
+    private static final short EM_RISCV = 243;
+
+    public static final String PRODUCT_INFO = """
+            {
+              "name": "IntelliJ IDEA",
+              "version": "0.0",
+              "productCode": "IC",
+              "launch": [
+                {
+                  "os": "Linux",
+                  "arch": "aarch64",
+                  "launcherPath": "bin/idea",
+                  "additionalJvmArguments": [
+                    "-Didea.vendor.name=JetBrains",
+                    "-Djna.boot.library.path=$IDE_HOME/lib/jna/aarch64"
+                  ],
+                  "customCommands": [
+                    {
+                      "commands": ["thinClient"],
+                      "additionalJvmArguments": ["-Djna.boot.library.path=$IDE_HOME/lib/jna/aarch64"]
+                    }
+                  ]
+                }
+              ]
+            }
+            """;
+
+    public static final String LAUNCHER_SCRIPT = """
+            #!/bin/sh
+            exec "$JAVA_BIN" \\
+              -classpath "$CLASS_PATH" "-Didea.vendor.name=JetBrains" "-Djna.boot.library.path=$IDE_HOME/lib/jna/aarch64" \\
+              com.intellij.idea.Main "$@"
+            """;
+
+    private final Random random = new Random(0);
+
+    public final Path directory;
+    public final Path ideTar;
+    public final Path jdkTar;
+    public final Path nativesZip;
+
+    /**
+     * @param smallFiles number of small files in {@code lib/} and {@code plugins/}
+     * @param largeJars  number of multi-megabyte jars
+     * @param jdkSize    approximate total size of the JDK archive content
+     */
+    public Fixtures(Path directory, int smallFiles, int largeJars, int jdkSize) throws IOException {
+        this.directory = directory;
+        this.ideTar = directory.resolve("ide.tar.gz");
+        this.jdkTar = directory.resolve("jdk.tar.gz");
+        this.nativesZip = directory.resolve("natives.zip");
+
+        writeIDE(smallFiles, largeJars);
+        writeJDK(jdkSize);
+        writeNatives();
+    }
+
+    public static byte[] elf(short machine, int size) {
+        byte[] bytes = new byte[Math.max(size, 64)];
+        bytes[0] = 0x7f;
+        bytes[1] = 'E';
+        bytes[2] = 'L';
+        bytes[3] = 'F';
+        bytes[4] = 2; // ELFCLASS64
+        bytes[5] = 1; // ELFDATA2LSB
+        bytes[6] = 1; // EV_CURRENT
+        bytes[16] = 3; // ET_DYN
+        bytes[18] = (byte) machine;
+        bytes[19] = (byte) (machine >>> 8);
+        return bytes;
+    }
+
+    public byte[] content(int size) {
+        return content(random, size);
+    }
+
+    // Compressible pseudo-random content, similar to class files and resources
+    public static byte[] content(Random random, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (random.nextInt(16) + (i % 64 == 0 ? random.nextInt(200) : 'a'));
+        }
+        return bytes;
+    }
+
+    public byte[] jar(int entries, int entrySize, boolean withOSFacadeImpl) throws IOException {
+        var output = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(output)) {
+            for (int i = 0; i < entries; i++) {
+                zip.putNextEntry(new ZipEntry("org/glavo/benchmark/Class" + i + ".class"));
+                zip.write(content(random.nextInt(entrySize) + 1));
+                zip.closeEntry();
+            }
+            if (withOSFacadeImpl) {
+                zip.putNextEntry(new ZipEntry("com/pty4j/unix/linux/OSFacadeImpl.class"));
+                zip.write(content(4096));
+                zip.closeEntry();
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private static void directory(TarArchiveOutputStream tar, String name) throws IOException {
+        tar.putArchiveEntry(new TarArchiveEntry(name));
+        tar.closeArchiveEntry();
+    }
+
+    private static void file(TarArchiveOutputStream tar, String name, byte[] content, int mode) throws IOException {
+        var entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        entry.setMode(mode);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+    }
+
+    private static void symlink(TarArchiveOutputStream tar, String name, String target) throws IOException {
+        var entry = new TarArchiveEntry(name, TarConstants.LF_SYMLINK);
+        entry.setLinkName(target);
+        tar.putArchiveEntry(entry);
+        tar.closeArchiveEntry();
+    }
+
+    private static TarArchiveOutputStream openTarGz(Path file) throws IOException {
+        OutputStream output = new GZIPOutputStream(Files.newOutputStream(file), 64 * 1024);
+        var tar = new TarArchiveOutputStream(output);
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        return tar;
+    }
+
+    private void writeIDE(int smallFiles, int largeJars) throws IOException {
+        String base = BASE_ARCH.normalize();
+        try (var tar = openTarGz(ideTar)) {
+            directory(tar, PREFIX);
+            directory(tar, PREFIX + "bin/");
+            file(tar, PREFIX + "bin/idea", elf(EM_AARCH64, 1024 * 1024), 0755);
+            file(tar, PREFIX + "bin/idea.sh", LAUNCHER_SCRIPT.getBytes(StandardCharsets.UTF_8), 0755);
+            file(tar, PREFIX + "bin/fsnotifier", elf(EM_AARCH64, 64 * 1024), 0755);
+            file(tar, PREFIX + "bin/restarter", elf(EM_AARCH64, 512 * 1024), 0755);
+            file(tar, PREFIX + "bin/libdbm.so", elf(EM_AARCH64, 64 * 1024), 0644);
+            file(tar, PREFIX + "product-info.json", PRODUCT_INFO.getBytes(StandardCharsets.UTF_8), 0644);
+
+            directory(tar, PREFIX + "lib/");
+            file(tar, PREFIX + "lib/util.jar", jar(2000, 8 * 1024, true), 0644);
+            file(tar, PREFIX + "lib/pty4j/linux/" + base + "/libpty.so", elf(EM_AARCH64, 16 * 1024), 0644);
+            file(tar, PREFIX + "lib/jna/" + base + "/libjnidispatch.so", elf(EM_AARCH64, 128 * 1024), 0644);
+            for (int i = 0; i < largeJars; i++) {
+                file(tar, PREFIX + "lib/large-" + i + ".jar", jar(1000, 16 * 1024, false), 0644);
+            }
+            for (int i = 0; i < smallFiles; i++) {
+                String name = (i % 2 == 0 ? "lib/" : "plugins/plugin-" + (i % 50) + "/lib/") + "small-" + i + ".jar";
+                file(tar, PREFIX + name, content(random.nextInt(32 * 1024) + 1), 0644);
+            }
+            symlink(tar, PREFIX + "bin/idea-link", "idea");
+
+            directory(tar, PREFIX + "jbr/");
+            directory(tar, PREFIX + "jbr/bin/");
+            file(tar, PREFIX + "jbr/bin/java", elf(EM_AARCH64, 64 * 1024), 0755);
+        }
+    }
+
+    private void writeJDK(int size) throws IOException {
+        try (var tar = openTarGz(jdkTar)) {
+            directory(tar, "jdk/");
+            directory(tar, "jdk/bin/");
+            file(tar, "jdk/bin/java", elf(EM_RISCV, 64 * 1024), 0755);
+            directory(tar, "jdk/lib/");
+            symlink(tar, "jdk/lib/libjvm.so", "server/libjvm.so");
+            file(tar, "jdk/lib/server/libjvm.so", elf(EM_RISCV, size / 4), 0755);
+            file(tar, "jdk/lib/modules", content(size / 2), 0644);
+            for (int i = 0; i < 200; i++) {
+                file(tar, "jdk/legal/file-" + i, content(size / 4 / 200), 0644);
+            }
+        }
+    }
+
+    private void writeNatives() throws IOException {
+        try (var zip = new ZipOutputStream(Files.newOutputStream(nativesZip))) {
+            for (String name : List.of("xplat-launcher", "fsnotifier", "restarter", "repair", "libpty.so")) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(elf(EM_RISCV, 256 * 1024));
+                zip.closeEntry();
+            }
+        }
+    }
+
+    public TransformIDE createTask(Arch targetArch, String name) {
+        Project project = ProjectBuilder.builder().withProjectDir(directory.toFile()).build();
+        TransformIDE task = project.getTasks().create(name, TransformIDE.class);
+        task.getIDEBaseArch().set(BASE_ARCH);
+        task.getIDEProduct().set(PRODUCT);
+        task.getIDEBaseTar().set(ideTar.toFile());
+        task.getIDETargetArch().set(targetArch);
+        task.getIDENativesZipFile().set(nativesZip.toFile());
+        task.getJDKArchive().set(jdkTar.toFile());
+        task.getTargetFile().set(directory.resolve(name + ".tar.gz").toFile());
+        return task;
+    }
+}
@@ -0,0 +1,83 @@
+package org.glavo.build.benchmark;
+
+import org.glavo.build.util.IOBuffer;
+import org.glavo.build.util.ParallelGZIPOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IOBufferBenchmark {
+    private static final int SIZE = 64 * 1024 * 1024;
+
+    @Param({"8192", "32768", "262144", "1048576"})
+    public int bufferSize;
+
+    private byte[] data;
+    private Path file;
+    private IOBuffer buffer;
+    private IOBuffer adaptiveBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        data = Fixtures.content(new Random(0), SIZE);
+        file = Files.createTempFile("iobuffer-benchmark", ".bin");
+        Files.write(file, data);
+        buffer = new IOBuffer(bufferSize);
+        adaptiveBuffer = new IOBuffer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void copyStream(BenchmarkSupport.Throughput throughput) throws IOException {
+        buffer.copy(new ByteArrayInputStream(data), OutputStream.nullOutputStream());
+        throughput.bytes += SIZE;
+    }
+
+    // A growing buffer, sized by the expected size of the input
+    @Benchmark
+    public void copyStreamAdaptive(BenchmarkSupport.Throughput throughput) throws IOException {
+        adaptiveBuffer.copy(new ByteArrayInputStream(data), OutputStream.nullOutputStream(), SIZE);
+        throughput.bytes += SIZE;
+    }
+
+    @Benchmark
+    public void copyFileStream(BenchmarkSupport.Throughput throughput) throws IOException {
+        try (var input = Files.newInputStream(file)) {
+            buffer.copy(input, OutputStream.nullOutputStream());
+        }
+        throughput.bytes += SIZE;
+    }
+
+    @Benchmark
+    public void copyChannel(BenchmarkSupport.Throughput throughput) throws IOException {
+        try (var channel = FileChannel.open(file)) {
+            buffer.copy(channel, 0, SIZE, OutputStream.nullOutputStream());
+        }
+        throughput.bytes += SIZE;
+    }
+
+    @Benchmark
+    public void copyToParallelGZIP(BenchmarkSupport.Throughput throughput) throws IOException {
+        try (var output = new ParallelGZIPOutputStream(OutputStream.nullOutputStream(), ParallelGZIPOutputStream.defaultThreads())) {
+            buffer.copy(new ByteArrayInputStream(data), output);
+        }
+        throughput.bytes += SIZE;
+    }
+}
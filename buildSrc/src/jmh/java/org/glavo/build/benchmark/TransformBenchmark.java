@@ -0,0 +1,66 @@
+package org.glavo.build.benchmark;
+
+import org.glavo.build.Arch;
+import org.glavo.build.tasks.TransformIDE;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 20)
+@Measurement(iterations = 3, time = 20)
+// ProjectBuilder needs deep reflection into java.base
+@Fork(value = 1, jvmArgsAppend = {
+        "--add-opens=java.base/java.lang=ALL-UNNAMED",
+        "--add-opens=java.base/java.util=ALL-UNNAMED",
+        "-Xmx2g"
+})
+public class TransformBenchmark {
+
+    @Param({"false", "true"})
+    public boolean tarCache;
+
+    private Path directory;
+    private Fixtures ide;
+    private Fixtures jbrOnly;
+
+    private TransformIDE transformTask;
+    private TransformIDE copyJRETask;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("transform-benchmark");
+        ide = new Fixtures(Files.createDirectory(directory.resolve("ide")), 4000, 8, 64 * 1024 * 1024);
+        // Only the mandatory entries besides the JBR, so that the time is dominated by copyJRE
+        jbrOnly = new Fixtures(Files.createDirectory(directory.resolve("jbr")), 0, 0, 256 * 1024 * 1024);
+
+        transformTask = ide.createTask(Arch.RISCV64, "transform");
+        copyJRETask = jbrOnly.createTask(Arch.RISCV64, "copyJRE");
+        if (tarCache) {
+            transformTask.getTarCacheDir().set(directory.resolve("cache").toFile());
+            copyJRETask.getTarCacheDir().set(directory.resolve("cache").toFile());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void doTransform(BenchmarkSupport.Throughput throughput) throws Throwable {
+        transformTask.run();
+        throughput.bytes += BenchmarkSupport.sizeOf(transformTask.getTargetFile().get().getAsFile().toPath());
+    }
+
+    @Benchmark
+    public void copyJRE(BenchmarkSupport.Throughput throughput) throws Throwable {
+        copyJRETask.run();
+        throughput.bytes += BenchmarkSupport.sizeOf(copyJRETask.getTargetFile().get().getAsFile().toPath());
+    }
+}
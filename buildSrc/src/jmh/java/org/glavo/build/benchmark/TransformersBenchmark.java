@@ -0,0 +1,98 @@
+package org.glavo.build.benchmark;
+
+import org.glavo.build.Arch;
+import org.glavo.build.tasks.TransformIDE;
+import org.glavo.build.transformer.FileTransformer;
+import org.glavo.build.transformer.IDETransformer;
+import org.glavo.build.transformer.ZipPatcher;
+import org.glavo.build.util.Spool;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+// ProjectBuilder needs deep reflection into java.base
+@Fork(value = 1, jvmArgsAppend = {
+        "--add-opens=java.base/java.lang=ALL-UNNAMED",
+        "--add-opens=java.base/java.util=ALL-UNNAMED",
+        "-Xmx2g"
+})
+public class TransformersBenchmark {
+
+    private static final class ExposedTransformer extends IDETransformer {
+        ExposedTransformer(TransformIDE task) throws Throwable {
+            super(task, task, null);
+        }
+
+        Map<String, FileTransformer> transformers() throws IOException {
+            return getTransformers();
+        }
+    }
+
+    private Path directory;
+
+    private byte[] utilJar;
+    private FileTransformer.PatchZip utilJarPatch;
+
+    private byte[] productInfo;
+    private FileTransformer.StreamTransform productInfoTransform;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        directory = Files.createTempDirectory("transformers-benchmark");
+        var fixtures = new Fixtures(directory, 0, 0, 1024 * 1024);
+
+        // The lib/util.jar rewrite only applies to LoongArch
+        Map<String, FileTransformer> transformers;
+        try (var transformer = new ExposedTransformer(fixtures.createTask(Arch.LOONGARCH64, "transformers"))) {
+            transformers = transformer.transformers();
+        }
+
+        utilJar = fixtures.jar(2000, 8 * 1024, true);
+        utilJarPatch = (FileTransformer.PatchZip) transformers.get("lib/util.jar");
+
+        productInfo = Fixtures.PRODUCT_INFO.getBytes(StandardCharsets.UTF_8);
+        productInfoTransform = (FileTransformer.StreamTransform) transformers.get("product-info.json");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteRecursively(directory);
+    }
+
+    // Spooled in and out like IDETransformer does
+    @Benchmark
+    public long utilJar(BenchmarkSupport.Throughput throughput) throws IOException {
+        try (var input = new Spool(directory);
+             var output = new Spool(directory)) {
+            try (var out = input.openOutput()) {
+                out.write(utilJar);
+            }
+            try (var channel = input.openChannel();
+                 var out = output.openOutput()) {
+                ZipPatcher.patch(channel, out, "lib/util.jar", utilJarPatch.replacements());
+            }
+            throughput.bytes += utilJar.length;
+            return output.size();
+        }
+    }
+
+    @Benchmark
+    public byte[] productInfo(BenchmarkSupport.Throughput throughput) throws IOException {
+        var result = new ByteArrayOutputStream(productInfo.length);
+        productInfoTransform.action().transform(new ByteArrayInputStream(productInfo), result);
+        throughput.bytes += productInfo.length;
+        return result.toByteArray();
+    }
+}
@@ -53,4 +53,23 @@ public enum Arch {
             default -> normalize().replace('-', '_') + "-unknown-linux-gnu";
         };
     }
+
+    // e_machine in the ELF header
+    public int getElfMachine() {
+        return switch (this) {
+            case X86_64 -> 62;
+            case AARCH64 -> 183;
+            case RISCV64 -> 243;
+            case LOONGARCH64 -> 258;
+        };
+    }
+
+    public static Arch ofElfMachine(int machine) {
+        for (Arch arch : Arch.values()) {
+            if (arch.getElfMachine() == machine) {
+                return arch;
+            }
+        }
+        return null;
+    }
 }
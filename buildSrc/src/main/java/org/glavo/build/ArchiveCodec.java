@@ -0,0 +1,112 @@
+package org.glavo.build;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.glavo.build.util.ParallelGZIPOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+public enum ArchiveCodec {
+    TAR("tar"),
+    GZIP("tar.gz"),
+    ZSTD("tar.zst"),
+    XZ("tar.xz");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int ZSTD_LEVEL = 12;
+    // 128 MiB is the largest window zstd decompresses without --long
+    private static final int ZSTD_WINDOW_LOG = 27;
+    // Preset 9 needs about 674 MiB of heap per stream in the daemon, 6 needs about 94 MiB
+    private static final int XZ_PRESET = 6;
+
+    // "ustar" in the header of the first tar entry
+    private static final int TAR_MAGIC_OFFSET = 257;
+
+    private final String extension;
+
+    ArchiveCodec(String extension) {
+        this.extension = extension;
+    }
+
+    // Detects the codec by the magic bytes at the start of the file
+    public static ArchiveCodec detect(Path file) throws IOException {
+        byte[] head;
+        try (var input = Files.newInputStream(file)) {
+            head = input.readNBytes(TAR_MAGIC_OFFSET + 5);
+        }
+
+        if (startsWith(head, 0, 0x1f, 0x8b)) {
+            return GZIP;
+        } else if (startsWith(head, 0, 0x28, 0xb5, 0x2f, 0xfd)) {
+            return ZSTD;
+        } else if (startsWith(head, 0, 0xfd, '7', 'z', 'X', 'Z', 0x00)) {
+            return XZ;
+        } else if (startsWith(head, TAR_MAGIC_OFFSET, 'u', 's', 't', 'a', 'r')) {
+            return TAR;
+        }
+
+        throw new IOException("Unknown archive format: " + file);
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, int... magic) {
+        if (bytes.length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((bytes[offset + i] & 0xff) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Opens the tar stream of the archive, whatever codec it is compressed with
+    public static InputStream open(Path file) throws IOException {
+        ArchiveCodec codec = detect(file);
+        InputStream input = Files.newInputStream(file);
+        try {
+            return codec.decompress(input);
+        } catch (Throwable e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public OutputStream compress(OutputStream output, int threads) throws IOException {
+        return switch (this) {
+            case TAR -> new BufferedOutputStream(output, BUFFER_SIZE);
+            case GZIP -> new ParallelGZIPOutputStream(output, threads);
+            case ZSTD -> {
+                var zstd = new ZstdOutputStream(output, ZSTD_LEVEL);
+                zstd.setWorkers(threads);
+                zstd.setLong(ZSTD_WINDOW_LOG);
+                zstd.setChecksum(true);
+                yield zstd;
+            }
+            case XZ -> new XZCompressorOutputStream(output, XZ_PRESET);
+        };
+    }
+
+    public InputStream decompress(InputStream input) throws IOException {
+        return switch (this) {
+            case TAR -> new BufferedInputStream(input, BUFFER_SIZE);
+            case GZIP -> new GZIPInputStream(input, BUFFER_SIZE);
+            case ZSTD -> new ZstdCompressorInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+            case XZ -> new XZCompressorInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+        };
+    }
+}
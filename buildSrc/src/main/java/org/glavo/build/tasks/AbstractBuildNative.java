@@ -0,0 +1,709 @@
+package org.glavo.build.tasks;
+
+import org.glavo.build.Arch;
+import org.glavo.build.util.IOBuffer;
+import org.glavo.build.util.Utils;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public abstract class AbstractBuildNative extends DefaultTask {
+
+    private static final Logger LOGGER = Logging.getLogger(AbstractBuildNative.class);
+
+    private static final long DEFAULT_CACHE_MAX_SIZE = 2L * 1024 * 1024 * 1024;
+    private static final String COPIES_DIR = ".copies";
+
+    @Internal
+    public abstract Property<Integer> getWorkers();
+
+    // Reuse the results of steps whose inputs did not change
+    @Internal
+    public abstract Property<Boolean> getCache();
+
+    // Upper bound of the cached results, the least recently used ones are evicted first
+    @Internal
+    public abstract Property<Long> getCacheMaxSize();
+
+    // Enables reproducible output, all zip entries get this timestamp
+    @Input
+    @Optional
+    public abstract Property<Long> getSourceDateEpoch();
+
+    @InputDirectory
+    public abstract RegularFileProperty getNativeProjectsRoot();
+
+    private final Map<String, String> toolVersions = new ConcurrentHashMap<>();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    public AbstractBuildNative() {
+        getLogging().captureStandardError(LogLevel.LIFECYCLE);
+        getLogging().captureStandardError(LogLevel.ERROR);
+    }
+
+    protected void build(List<? extends NativeTarget> targets) throws IOException {
+        Utils.ensureLinux();
+
+        if (targets.isEmpty()) {
+            throw new GradleException("No targets");
+        }
+
+        Path nativeRoot = Utils.getAsPath(getNativeProjectsRoot()).toAbsolutePath();
+        Path buildRoot = nativeRoot.resolve("build");
+
+        // Caches are kept between builds. The go cache is shared by all targets, while cargo locks its target directory
+        // for the whole build, so each target has its own one and only CARGO_HOME (the registry) is shared
+        Path cacheDir = buildRoot.resolve("cache");
+        Files.createDirectories(cacheDir);
+
+        Set<Arch> arches = new HashSet<>();
+        List<ActionsBuilder> builders = new ArrayList<>();
+        for (NativeTarget target : targets) {
+            Arch targetArch = target.getTargetArch().getOrElse(Arch.current());
+            if (!arches.add(targetArch)) {
+                throw new GradleException("Duplicate target: " + targetArch);
+            }
+
+            Path buildDir = buildRoot.resolve(targetArch.normalize());
+            Utils.deleteDirectory(buildDir);
+            Files.createDirectories(buildDir);
+
+            Files.createDirectories(Utils.getAsPath(target.getOutputFile()).getParent());
+            builders.add(addSteps(target, targetArch, nativeRoot, buildDir, cacheDir));
+        }
+
+        Path artifactsDir = getCache().getOrElse(true) ? cacheDir.resolve("artifacts") : null;
+        cacheHits.reset();
+        cacheMisses.reset();
+
+        try {
+            runSteps(builders, artifactsDir, getWorkers().getOrElse(Runtime.getRuntime().availableProcessors()));
+            if (artifactsDir != null) {
+                LOGGER.lifecycle("Native cache: {} hits, {} misses", cacheHits.sum(), cacheMisses.sum());
+                evictArtifacts(artifactsDir, builders);
+            }
+
+            try (var buffer = IOBuffer.acquire()) {
+                for (int i = 0; i < targets.size(); i++) {
+                    Path nativesZipFile = Utils.getAsPath(targets.get(i).getOutputFile());
+                    try (var out = new ZipOutputStream(Files.newOutputStream(nativesZipFile, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE))) {
+                        for (Step step : builders.get(i).steps.values()) {
+                            for (Step.Result result : step.results) {
+                                Path file = step.artifactDir != null ? step.artifactDir.resolve(result.name) : result.file;
+                                LOGGER.lifecycle("Add {} to {}", file, nativesZipFile.getFileName());
+                                var zipEntry = new ZipEntry(result.name);
+                                if (getSourceDateEpoch().isPresent()) {
+                                    // DOS time without time zone, so the output does not depend on the time zone of the build
+                                    zipEntry.setTimeLocal(LocalDateTime.ofEpochSecond(getSourceDateEpoch().get(), 0, ZoneOffset.UTC));
+                                }
+                                out.putNextEntry(zipEntry);
+                                try (var input = Files.newInputStream(file)) {
+                                    buffer.copy(input, out, Files.size(file));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            for (NativeTarget target : targets) {
+                target.getOutputFile().get().getAsFile().delete();
+            }
+            throw e;
+        }
+    }
+
+    private ActionsBuilder addSteps(NativeTarget target, Arch targetArch, Path nativeRoot, Path buildDir, Path cacheDir) {
+        Arch osArch = Arch.current();
+        String rustTargetTriple = targetArch.getRustTriple();
+
+        String cc = target.getCC().getOrElse("gcc");
+        String cxx = target.getCXX().getOrElse("g++");
+        String make = target.getMake().getOrElse("make");
+        String cmake = target.getCMake().getOrElse("cmake");
+        String go = target.getGo().getOrElse("go");
+        String cargo = target.getCargo().getOrElse("cargo");
+        // The rustc used by cargo, when cargo is not on the PATH it is taken from the same toolchain
+        String rustc = cargo.contains("/") ? Path.of(cargo).resolveSibling("rustc").toString() : "rustc";
+
+        var builder = new ActionsBuilder(targetArch.normalize())
+                .env("CC", cc)
+                .env("CXX", cxx)
+                .env("GOCACHE", cacheDir.resolve("go").toString());
+
+//        // LinuxGlobalMenu
+//        Path linuxGlobalMenuDir = nativeRoot.resolve("LinuxGlobalMenu");
+//        Path linuxGlobalMenuBuildDir = buildDir.resolve("LinuxGlobalMenu");
+//
+//        Path libdbusmenuDir = nativeRoot.resolve("libdbusmenu");
+//        Path libdbusmenuGlibDir = libdbusmenuDir.resolve("libdbusmenu-glib");
+//        // libdbusmenu is built by the same step, since LinuxGlobalMenu links it
+//        var linuxGlobalMenu = builder.step("LinuxGlobalMenu").inputs(libdbusmenuDir, linuxGlobalMenuDir);
+//        linuxGlobalMenu.exec(make, "clean")
+//                .working(libdbusmenuDir);
+//        linuxGlobalMenu.exec("bash", "./configure",
+//                        "--build=" + autoMakeTriple(osArch),
+//                        "--host=" + autoMakeTriple(targetArch))
+//                .working(libdbusmenuDir);
+//        linuxGlobalMenu.exec(make)
+//                .working(libdbusmenuGlibDir);
+//        linuxGlobalMenu.copy(
+//                libdbusmenuGlibDir.resolve(".libs/libdbusmenu-glib.a"),
+//                linuxGlobalMenuDir.resolve("libdbusmenu-glib.a")
+//        );
+//        linuxGlobalMenu.exec(cmake, "-DCMAKE_BUILD_TYPE=Release",
+//                "-S", linuxGlobalMenuDir,
+//                "-B", linuxGlobalMenuBuildDir
+//        );
+//        linuxGlobalMenu.exec(cmake, "--build", linuxGlobalMenuBuildDir);
+//        linuxGlobalMenu.addResult(linuxGlobalMenuBuildDir.resolve("libdbm.so"));
+
+        // fsNotifier
+        Path fsNotifierDir = nativeRoot.resolve("fsNotifier");
+        Path fsNotifierTargetFile = buildDir.resolve("fsnotifier");
+        var fsNotifier = builder.step("fsNotifier").inputs(fsNotifierDir);
+        fsNotifier.exec(cc, "-O2", "-Wall", "-Wextra", "-Wpedantic",
+                "-std=c11",
+                "-DVERSION=\"f93937d\"",
+                fsNotifierDir.resolve("main.c"), fsNotifierDir.resolve("inotify.c"), fsNotifierDir.resolve("util.c"),
+                "-o", fsNotifierTargetFile
+        );
+        fsNotifier.addResult(fsNotifierTargetFile);
+
+        // restarter
+        Path restarterDir = nativeRoot.resolve("restarter");
+        Path restarterTargetDir = cacheDir.resolve("cargo/restarter").resolve(targetArch.normalize());
+        var restarter = builder.step("restarter").inputs(restarterDir).outputDir(restarterTargetDir).toolchain(rustc, "-vV");
+        restarter.exec(cargo, "build", "--release", "--target=" + rustTargetTriple,
+                "--manifest-path=" + restarterDir.resolve("Cargo.toml"),
+                "--target-dir=" + restarterTargetDir);
+        restarter.addResult(restarterTargetDir.resolve(rustTargetTriple + "/release/restarter"));
+
+        // repair-utility
+        Path repairUtilityDir = nativeRoot.resolve("repair-utility");
+        Path repairUtilityFile = buildDir.resolve("repair");
+        var repairUtility = builder.step("repair-utility").inputs(repairUtilityDir);
+        repairUtility.exec(go, "build", "-o", repairUtilityFile)
+                .working(repairUtilityDir)
+                .env("GOOS", "linux")
+                .env("GOARCH", targetArch.getGoArch())
+                .env("CGO_ENABLED", "0");
+        repairUtility.addResult(repairUtilityFile);
+
+        // XPlatLauncher
+        Path xplatLauncherDir = nativeRoot.resolve("XPlatLauncher");
+        Path xplatLauncherTargetDir = cacheDir.resolve("cargo/XPlatLauncher").resolve(targetArch.normalize());
+        var xplatLauncher = builder.step("XPlatLauncher").inputs(xplatLauncherDir).outputDir(xplatLauncherTargetDir).toolchain(rustc, "-vV");
+        xplatLauncher.exec(cargo, "build", "--release", "--target=" + rustTargetTriple,
+                "--manifest-path=" + xplatLauncherDir.resolve("Cargo.toml"),
+                "--target-dir=" + xplatLauncherTargetDir);
+        xplatLauncher.addResult(xplatLauncherTargetDir.resolve(rustTargetTriple + "/release/xplat-launcher"));
+
+        // pty4j
+        Path pty4jDir = nativeRoot.resolve("pty4j");
+        Path pty4jFile = buildDir.resolve("libpty.so");
+        var pty4j = builder.step("pty4j").inputs(pty4jDir);
+        pty4j.exec(cc, "-shared", "-o", pty4jFile, "-fPIC", "-D_REENTRANT", "-D_GNU_SOURCE",
+                "-I", pty4jDir,
+                pty4jDir.resolve("exec_pty.c"),
+                pty4jDir.resolve("openpty.c"),
+                pty4jDir.resolve("pfind.c")
+        );
+        pty4j.addResult(pty4jFile);
+
+        return builder;
+    }
+
+    // Steps run concurrently once their dependencies are done, the actions of a step run in order
+    private void runSteps(List<ActionsBuilder> builders, @Nullable Path artifactsDir, int workers) {
+        checkOutputs(builders);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            Map<Step, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+            for (ActionsBuilder builder : builders) {
+                for (Step step : builder.steps.values()) {
+                    var dependencies = new CompletableFuture<?>[step.dependencies.size()];
+                    for (int i = 0; i < dependencies.length; i++) {
+                        Step dependency = step.dependencies.get(i);
+                        dependencies[i] = futures.get(dependency);
+                        if (dependencies[i] == null) {
+                            throw new GradleException("%s depends on %s, which is not declared before it".formatted(step.name, dependency.name));
+                        }
+                    }
+
+                    futures.put(step, CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+                        try {
+                            // The cached results of a step are only valid for the same results of its dependencies
+                            if (artifactsDir != null && !step.inputs.isEmpty()
+                                && step.dependencies.stream().allMatch(dependency -> dependency.fingerprint != null)) {
+                                runCachedStep(builder, step, artifactsDir);
+                            } else {
+                                runStep(builder, step);
+                            }
+                        } catch (Throwable e) {
+                            throw new GradleException("Failed to build " + step.name, e);
+                        }
+                    }, executor));
+                }
+            }
+
+            // Steps fail with the failure of their dependencies, which is only reported once
+            Set<Throwable> failures = new LinkedHashSet<>();
+            for (CompletableFuture<Void> future : futures.values()) {
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+
+            if (!failures.isEmpty()) {
+                var iterator = failures.iterator();
+                var failure = new GradleException("Failed to build native projects", iterator.next());
+                iterator.forEachRemaining(failure::addSuppressed);
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Steps run concurrently, so a directory or file written by one step must not be written by another
+    private static void checkOutputs(List<ActionsBuilder> builders) {
+        Map<Path, Step> outputDirs = new HashMap<>();
+        Map<Path, Step> results = new HashMap<>();
+        for (ActionsBuilder builder : builders) {
+            for (Step step : builder.steps.values()) {
+                for (Path dir : step.outputDirs) {
+                    Path normalized = dir.toAbsolutePath().normalize();
+                    outputDirs.forEach((other, owner) -> {
+                        if (normalized.startsWith(other) || other.startsWith(normalized)) {
+                            throw new GradleException("%s and %s share the output directory %s".formatted(owner.name, step.name, dir));
+                        }
+                    });
+                    outputDirs.put(normalized, step);
+                }
+                for (Step.Result result : step.results) {
+                    Step owner = results.putIfAbsent(result.file.toAbsolutePath().normalize(), step);
+                    if (owner != null) {
+                        throw new GradleException("%s and %s both write %s".formatted(owner.name, step.name, result.file));
+                    }
+                }
+            }
+        }
+
+        results.forEach((file, step) -> outputDirs.forEach((dir, owner) -> {
+            if (owner != step && file.startsWith(dir)) {
+                throw new GradleException("%s writes %s into the output directory of %s".formatted(step.name, file, owner.name));
+            }
+        }));
+    }
+
+    private void runCachedStep(ActionsBuilder builder, Step step, Path artifactsDir) throws IOException {
+        step.fingerprint = fingerprint(builder, step);
+        Path artifactDir = artifactsDir.resolve(step.fingerprint);
+        if (Files.isDirectory(artifactDir)) {
+            LOGGER.lifecycle("[{}] Up to date ({})", step.name, step.fingerprint);
+            cacheHits.increment();
+            Files.setLastModifiedTime(artifactDir, FileTime.fromMillis(System.currentTimeMillis()));
+            replayCopies(step, artifactDir);
+            step.artifactDir = artifactDir;
+            return;
+        }
+
+        cacheMisses.increment();
+        runStep(builder, step);
+
+        Files.createDirectories(artifactsDir);
+        Path temp = Files.createTempDirectory(artifactsDir, step.fingerprint);
+        try {
+            for (Step.Result result : step.results) {
+                Files.copy(result.file, temp.resolve(result.name), StandardCopyOption.COPY_ATTRIBUTES);
+            }
+
+            // The files copied by the step are side effects other steps may read, so they are cached as well
+            List<Action.Copy> copies = copies(step);
+            if (!copies.isEmpty()) {
+                Files.createDirectories(temp.resolve(COPIES_DIR));
+                for (int i = 0; i < copies.size(); i++) {
+                    Files.copy(copies.get(i).target(), temp.resolve(COPIES_DIR).resolve(String.valueOf(i)), StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+            Files.move(temp, artifactDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+            // Built concurrently by another build
+            Utils.deleteDirectory(temp);
+        } catch (Throwable e) {
+            Utils.deleteDirectory(temp);
+            throw e;
+        }
+        step.artifactDir = artifactDir;
+    }
+
+    private static List<Action.Copy> copies(Step step) {
+        return step.actions.stream()
+                .filter(action -> action instanceof Action.Copy)
+                .map(action -> (Action.Copy) action)
+                .toList();
+    }
+
+    private static void replayCopies(Step step, Path artifactDir) throws IOException {
+        List<Action.Copy> copies = copies(step);
+        for (int i = 0; i < copies.size(); i++) {
+            Action.Copy copy = copies.get(i);
+            LOGGER.lifecycle("[{}] Restore {}", step.name, copy.target());
+            Files.createDirectories(copy.target().getParent());
+            Files.copy(artifactDir.resolve(COPIES_DIR).resolve(String.valueOf(i)), copy.target(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Artifacts of the steps of this build are kept even if the cache is over the limit
+    private void evictArtifacts(Path artifactsDir, List<ActionsBuilder> builders) throws IOException {
+        Set<Path> used = new HashSet<>();
+        for (ActionsBuilder builder : builders) {
+            for (Step step : builder.steps.values()) {
+                if (step.artifactDir != null) {
+                    used.add(step.artifactDir);
+                }
+            }
+        }
+
+        List<Path> artifacts;
+        try (var stream = Files.list(artifactsDir)) {
+            artifacts = stream.filter(Files::isDirectory).toList();
+        }
+
+        long maxSize = getCacheMaxSize().getOrElse(DEFAULT_CACHE_MAX_SIZE);
+        for (Path evicted : Utils.evictLeastRecentlyUsed(artifacts, maxSize, used::contains)) {
+            LOGGER.lifecycle("Evicted {} from native cache", evicted.getFileName());
+        }
+    }
+
+    // Covers the dependencies, the actions and their environment, the toolchains and the input files
+    private String fingerprint(ActionsBuilder builder, Step step) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+
+        Consumer<String> update = str -> {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            digest.update(bytes);
+        };
+
+        update.accept(step.name);
+        for (Step dependency : step.dependencies) {
+            update.accept("dependency " + dependency.fingerprint);
+        }
+        new TreeMap<>(builder.env).forEach((key, value) -> update.accept(key + "=" + value));
+        for (Action action : step.actions) {
+            switch (action) {
+                case Action.Exec exec -> {
+                    update.accept("exec");
+                    exec.commands.forEach(update);
+                    update.accept(toolVersion(exec.commands.getFirst()));
+                    update.accept(String.valueOf(exec.workingDir));
+                    if (exec.env != null) {
+                        new TreeMap<>(exec.env).forEach((key, value) -> update.accept(key + "=" + value));
+                    }
+                }
+                case Action.Copy copy -> {
+                    update.accept("copy");
+                    update.accept(copy.source.toString());
+                    update.accept(copy.target.toString());
+                }
+            }
+        }
+        for (Step.Result result : step.results) {
+            update.accept("result " + result.name);
+        }
+
+        // Compilers from the environment are also used by build scripts, such as those of cargo
+        for (String compiler : List.of("CC", "CXX")) {
+            String tool = builder.env.get(compiler);
+            if (tool != null) {
+                update.accept(compiler + " " + toolVersion(tool));
+            }
+        }
+        for (List<String> command : step.toolchain) {
+            update.accept(command + " " + commandOutput(command));
+        }
+
+        try (var buffer = IOBuffer.acquire()) {
+            for (Path input : step.inputs) {
+                List<Path> files;
+                try (var stream = Files.walk(input)) {
+                    files = stream.filter(Files::isRegularFile)
+                            .filter(file -> !isBuildOutput(input.relativize(file)))
+                            .sorted()
+                            .toList();
+                }
+
+                for (Path file : files) {
+                    update.accept(input.relativize(file).toString());
+                    update.accept(String.valueOf(Files.size(file)));
+                    try (var channel = FileChannel.open(file)) {
+                        buffer.update(digest, channel);
+                    }
+                }
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Cargo.lock is generated into the (ignored) source directory by the build itself
+    private static boolean isBuildOutput(Path relativePath) {
+        for (Path name : relativePath) {
+            if (name.toString().equals("target") || name.toString().equals("build")) {
+                return true;
+            }
+        }
+        return relativePath.getFileName().toString().equals("Cargo.lock");
+    }
+
+    private String toolVersion(String tool) {
+        // go only understands "go version"
+        for (String versionArg : List.of("--version", "version")) {
+            String output = commandOutput(List.of(tool, versionArg));
+            if (!output.equals("failed")) {
+                return output;
+            }
+        }
+        return "unknown";
+    }
+
+    private String commandOutput(List<String> command) {
+        return toolVersions.computeIfAbsent(String.join(" ", command), it -> {
+            try {
+                Process process = new ProcessBuilder(command)
+                        .redirectErrorStream(true)
+                        .start();
+                String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                return process.waitFor() == 0 ? output : "failed";
+            } catch (IOException e) {
+                return "unavailable";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GradleException("Interrupted", e);
+            }
+        });
+    }
+
+    private void runStep(ActionsBuilder builder, Step step) throws IOException {
+        for (Action action : step.actions) {
+            switch (action) {
+                case Action.Exec exec -> {
+                    LOGGER.lifecycle("[{}] Exec {}", step.name, exec.commands);
+
+                    try (var stdout = new PrefixedOutputStream(step.name);
+                         var stderr = new PrefixedOutputStream(step.name)) {
+                        this.getProject().exec(execSpec -> {
+                            execSpec.commandLine(exec.commands);
+                            if (exec.workingDir != null) {
+                                execSpec.setWorkingDir(exec.workingDir.toFile());
+                            }
+                            execSpec.environment(builder.env);
+                            if (exec.env != null) {
+                                execSpec.environment(exec.env);
+                            }
+                            execSpec.setStandardOutput(stdout);
+                            execSpec.setErrorOutput(stderr);
+                        }).assertNormalExitValue();
+                    }
+                }
+                case Action.Copy copy -> {
+                    LOGGER.lifecycle("[{}] Copy {} to {}", step.name, copy.source, copy.target);
+                    Files.copy(copy.source, copy.target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    // Logs the output of a tool line by line, prefixed with the step name
+    private static final class PrefixedOutputStream extends OutputStream {
+        private final String prefix;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        PrefixedOutputStream(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                flushLine();
+            } else {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        private void flushLine() {
+            LOGGER.lifecycle("[{}] {}", prefix, line.toString(StandardCharsets.UTF_8));
+            line.reset();
+        }
+
+        @Override
+        public void close() {
+            if (line.size() > 0) {
+                flushLine();
+            }
+        }
+    }
+
+    private sealed interface Action {
+        final class Exec implements Action {
+            final List<String> commands = new ArrayList<>();
+            Map<String, String> env;
+            Path workingDir;
+
+            Exec working(Path workingDir) {
+                this.workingDir = workingDir;
+                return this;
+            }
+
+            Exec env(String key, String value) {
+                if (env == null) {
+                    env = new HashMap<>();
+                }
+
+                env.put(key, value);
+                return this;
+            }
+        }
+
+        record Copy(Path source, Path target) implements Action {
+
+        }
+    }
+
+    private static final class Step {
+        final String name;
+        final List<Action> actions = new ArrayList<>();
+        final List<Result> results = new ArrayList<>();
+        final List<Path> inputs = new ArrayList<>();
+        // Commands whose output identifies a toolchain not run directly by the actions
+        final List<List<String>> toolchain = new ArrayList<>();
+        // Directories written by the step as a whole, such as the target directory of cargo
+        final List<Path> outputDirs = new ArrayList<>();
+        final List<Step> dependencies = new ArrayList<>();
+
+        volatile String fingerprint;
+        volatile Path artifactDir;
+
+        record Result(String name, Path file) {
+        }
+
+        Step(String name) {
+            this.name = name;
+        }
+
+        Step inputs(Path... inputs) {
+            this.inputs.addAll(List.of(inputs));
+            return this;
+        }
+
+        Step outputDir(Path dir) {
+            this.outputDirs.add(dir);
+            return this;
+        }
+
+        // The step runs after the given steps, which must be declared before it
+        Step dependsOn(Step... steps) {
+            this.dependencies.addAll(List.of(steps));
+            return this;
+        }
+
+        Step toolchain(String... command) {
+            this.toolchain.add(List.of(command));
+            return this;
+        }
+
+        Action.Exec exec(Object... commands) {
+            Action.Exec exec = new Action.Exec();
+            for (Object command : commands) {
+                exec.commands.add(command.toString());
+            }
+            this.actions.add(exec);
+            return exec;
+        }
+
+        void copy(Path source, Path target) {
+            var copy = new Action.Copy(source, target);
+            this.actions.add(copy);
+        }
+
+        void addResult(Path file) {
+            var addResult = new Result(file.getFileName().toString(), file);
+            this.results.add(addResult);
+        }
+    }
+
+    private static final class ActionsBuilder {
+        final String prefix;
+        final Map<String, Step> steps = new LinkedHashMap<>();
+        final Map<String, String> env = new HashMap<>();
+
+        ActionsBuilder(String prefix) {
+            this.prefix = prefix;
+        }
+
+        ActionsBuilder env(String key, String value) {
+            env.put(key, value);
+            return this;
+        }
+
+        // Steps are named <prefix>/<name>
+        Step step(String name) {
+            var step = new Step(prefix + "/" + name);
+            if (steps.putIfAbsent(name, step) != null) {
+                throw new GradleException("Duplicate step: " + step.name);
+            }
+            return step;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.glavo.build.tasks;
+
+import org.glavo.build.Arch;
+import org.glavo.build.ArchiveCodec;
+import org.glavo.build.Product;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+
+public abstract class AbstractTransformIDE extends DefaultTask {
+
+    @Input
+    public abstract Property<Arch> getIDEBaseArch();
+
+    @Input
+    public abstract Property<Product> getIDEProduct();
+
+    @InputFile
+    public abstract RegularFileProperty getIDEBaseTar();
+
+    // The zstd frames depend on the number of workers
+    @Input
+    @Optional
+    public abstract Property<Integer> getCompressionThreads();
+
+    // Writes a <target>.index for random access to the entries of gzip output, see TarIndex
+    @Input
+    @Optional
+    public abstract Property<Boolean> getWriteIndex();
+
+    // The extension of the target files must match the codec, see ArchiveCodec.getExtension
+    @Input
+    @Optional
+    public abstract Property<ArchiveCodec> getOutputCodec();
+
+    @Input
+    @Optional
+    public abstract Property<Boolean> getIncremental();
+
+    // Enables reproducible output, see Utils.normalizeTarEntry
+    @Input
+    @Optional
+    public abstract Property<Long> getSourceDateEpoch();
+
+    // Fails the transformation if the base IDE contains base-arch ELF files that no transformer replaces
+    @Input
+    @Optional
+    public abstract Property<Boolean> getFailOnUncoveredNatives();
+
+    // Lists the native libraries inside jars that have no counterpart for the target architecture in the report
+    @Input
+    @Optional
+    public abstract Property<Boolean> getScanJars();
+
+    // Only a cache of the inflated base tar, it does not change the output
+    @Internal
+    public abstract DirectoryProperty getTarCacheDir();
+
+    @Internal
+    public abstract Property<Long> getTarCacheMaxSize();
+}
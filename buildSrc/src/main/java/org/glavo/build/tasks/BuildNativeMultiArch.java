@@ -0,0 +1,30 @@
+package org.glavo.build.tasks;
+
+import org.gradle.api.Action;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public abstract class BuildNativeMultiArch extends AbstractBuildNative {
+
+    private final List<NativeTarget> targets = new ArrayList<>();
+
+    @Nested
+    public List<NativeTarget> getTargets() {
+        return targets;
+    }
+
+    public void target(Action<? super NativeTarget> action) {
+        NativeTarget target = getProject().getObjects().newInstance(NativeTarget.class);
+        action.execute(target);
+        targets.add(target);
+    }
+
+    @TaskAction
+    public void run() throws IOException {
+        build(targets);
+    }
+}
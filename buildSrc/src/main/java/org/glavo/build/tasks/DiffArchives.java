@@ -0,0 +1,148 @@
+package org.glavo.build.tasks;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.glavo.build.ArchiveCodec;
+import org.glavo.build.util.IOBuffer;
+import org.glavo.build.util.Utils;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks that two builds of an archive (a tarball or {@code .zip}) are byte-identical,
+ * and reports the entries that differ otherwise.
+ */
+public abstract class DiffArchives extends DefaultTask {
+    private static final Logger LOGGER = Logging.getLogger(DiffArchives.class);
+
+    private static final int MAX_REPORTED_DIFFERENCES = 50;
+
+    @InputFile
+    public abstract RegularFileProperty getExpectedFile();
+
+    @InputFile
+    public abstract RegularFileProperty getActualFile();
+
+    private record EntryInfo(String header, String contentHash) {
+    }
+
+    @TaskAction
+    public void run() throws IOException {
+        Path expected = getExpectedFile().get().getAsFile().toPath();
+        Path actual = getActualFile().get().getAsFile().toPath();
+
+        if (Files.size(expected) == Files.size(actual) && Utils.sha256(expected).equals(Utils.sha256(actual))) {
+            LOGGER.lifecycle("{} is identical to {}", actual.getFileName(), expected);
+            return;
+        }
+
+        LinkedHashMap<String, EntryInfo> expectedEntries;
+        LinkedHashMap<String, EntryInfo> actualEntries;
+        // Closing the executor waits for the expected archive, even if reading the actual one failed
+        try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            var expectedFuture = CompletableFuture.supplyAsync(() -> readEntries(expected), executor);
+            actualEntries = readEntries(actual);
+            expectedEntries = expectedFuture.join();
+        } catch (CompletionException e) {
+            throw new GradleException("Failed to read archives", e.getCause());
+        }
+
+        List<String> differences = new ArrayList<>();
+        expectedEntries.forEach((name, expectedEntry) -> {
+            EntryInfo actualEntry = actualEntries.get(name);
+            if (actualEntry == null) {
+                differences.add("Missing: " + name);
+            } else if (!expectedEntry.header.equals(actualEntry.header)) {
+                differences.add("Header of %s: %s != %s".formatted(name, actualEntry.header, expectedEntry.header));
+            } else if (!expectedEntry.contentHash.equals(actualEntry.contentHash)) {
+                differences.add("Content of " + name);
+            }
+        });
+        for (String name : actualEntries.keySet()) {
+            if (!expectedEntries.containsKey(name)) {
+                differences.add("Unexpected: " + name);
+            }
+        }
+        if (differences.isEmpty()) {
+            if (!List.copyOf(expectedEntries.keySet()).equals(List.copyOf(actualEntries.keySet()))) {
+                differences.add("Order of entries");
+            } else {
+                differences.add("Archive framing (compression or padding), all entries are identical");
+            }
+        }
+
+        for (int i = 0; i < Math.min(differences.size(), MAX_REPORTED_DIFFERENCES); i++) {
+            LOGGER.error(differences.get(i));
+        }
+        if (differences.size() > MAX_REPORTED_DIFFERENCES) {
+            LOGGER.error("... and {} more differences", differences.size() - MAX_REPORTED_DIFFERENCES);
+        }
+        throw new GradleException("%s differs from %s in %d places".formatted(actual, expected, differences.size()));
+    }
+
+    private static LinkedHashMap<String, EntryInfo> readEntries(Path file) {
+        try (var buffer = IOBuffer.acquire()) {
+            return file.getFileName().toString().endsWith(".zip") ? readZipEntries(file, buffer) : readTarEntries(file, buffer);
+        } catch (IOException e) {
+            throw new CompletionException(new IOException("Failed to read " + file, e));
+        }
+    }
+
+    private static LinkedHashMap<String, EntryInfo> readTarEntries(Path file, IOBuffer buffer) throws IOException {
+        var result = new LinkedHashMap<String, EntryInfo>();
+        try (var tar = new TarArchiveInputStream(ArchiveCodec.open(file))) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                String header = "mode=%o mtime=%s uid=%d/%s gid=%d/%s link=%s size=%d".formatted(
+                        entry.getMode(), entry.getLastModifiedTime(),
+                        entry.getLongUserId(), entry.getUserName(),
+                        entry.getLongGroupId(), entry.getGroupName(),
+                        entry.getLinkName(), entry.getSize());
+                if (result.put(entry.getName(), new EntryInfo(header, hash(tar, buffer))) != null) {
+                    throw new GradleException("Duplicate entry " + entry.getName() + " in " + file);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static LinkedHashMap<String, EntryInfo> readZipEntries(Path file, IOBuffer buffer) throws IOException {
+        var result = new LinkedHashMap<String, EntryInfo>();
+        try (var zip = ZipFile.builder().setPath(file).get()) {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntriesInPhysicalOrder())) {
+                String header = "method=%d time=%d extra=%s size=%d".formatted(
+                        entry.getMethod(), entry.getTime(), HexFormat.of().formatHex(entry.getExtra() == null ? new byte[0] : entry.getExtra()), entry.getSize());
+                try (var input = zip.getInputStream(entry)) {
+                    if (result.put(entry.getName(), new EntryInfo(header, hash(input, buffer))) != null) {
+                        throw new GradleException("Duplicate entry " + entry.getName() + " in " + file);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String hash(InputStream input, IOBuffer buffer) throws IOException {
+        MessageDigest digest = Utils.sha256();
+        buffer.update(digest, input);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -3,21 +3,35 @@ package org.glavo.build.tasks;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.io.FileUtils;
+import org.glavo.build.ArchiveCodec;
+import org.glavo.build.util.ContentStore;
 import org.glavo.build.util.Utils;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.zip.GZIPInputStream;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
 public abstract class ExtractIDE extends DefaultTask {
+    private static final Logger LOGGER = Logging.getLogger(ExtractIDE.class);
 
     @InputFile
     public abstract Property<File> getSourceFile();
@@ -25,6 +39,41 @@ public abstract class ExtractIDE extends DefaultTask {
     @OutputDirectory
     public abstract Property<File> getTargetDir();
 
+    @Internal
+    public abstract Property<Boolean> getParallel();
+
+    // Content-addressed store shared by all extractions, files are reflinked from it instead of written.
+    // It is skipped where the target file system does not support reflinks
+    @Internal
+    public abstract DirectoryProperty getStoreDir();
+
+    @Internal
+    public abstract Property<Long> getStoreMaxSize();
+
+    // Upper bound of the payloads read from the archive but not yet written by the writer threads
+    private static final int MAX_BYTES_IN_FLIGHT = 256 * 1024 * 1024;
+
+    private final Set<Path> createdDirectories = new HashSet<>();
+
+    private void ensureDirectory(Path dir) throws IOException {
+        if (createdDirectories.add(dir)) {
+            Files.createDirectories(dir);
+        }
+    }
+
+    private @Nullable ContentStore createStore(Path targetDir) throws IOException {
+        if (!getStoreDir().isPresent()) {
+            return null;
+        }
+
+        var store = new ContentStore(getStoreDir().get().getAsFile().toPath(), getStoreMaxSize().getOrElse(ContentStore.DEFAULT_MAX_SIZE));
+        if (!store.supportsReflinks(targetDir)) {
+            LOGGER.lifecycle("Reflinks are not supported for {}, extracting without the content store", targetDir);
+            return null;
+        }
+        return store;
+    }
+
     @TaskAction
     public void run() throws IOException {
         Utils.ensureLinux();
@@ -32,16 +81,29 @@ public abstract class ExtractIDE extends DefaultTask {
         var targetDir = getTargetDir().get().toPath();
         FileUtils.deleteDirectory(targetDir.toFile());
         Files.createDirectories(targetDir);
+        createdDirectories.clear();
+        createdDirectories.add(targetDir);
+
+        ContentStore store = createStore(targetDir);
+        boolean parallel = getParallel().getOrElse(false);
+        ExecutorService writers = parallel ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        Semaphore bytesInFlight = new Semaphore(MAX_BYTES_IN_FLIGHT);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
 
-        try (var tar = new TarArchiveInputStream(new GZIPInputStream(Files.newInputStream(getSourceFile().get().toPath())))) {
+        try (var tar = new TarArchiveInputStream(ArchiveCodec.open(getSourceFile().get().toPath()))) {
             TarArchiveEntry entry = tar.getNextEntry();
             if (entry == null || !entry.isDirectory() || entry.getName().chars().filter(ch -> ch == '/').count() != 1) {
-                throw new GradleException("Invalid directory entry: ${it.name}");
+                throw new GradleException("Invalid directory entry: " + (entry == null ? null : entry.getName()));
             }
 
             String prefix = entry.getName();
+            Set<String> names = new HashSet<>();
 
             while ((entry = tar.getNextEntry()) != null) {
+                if (failure.get() != null) {
+                    break;
+                }
+
                 if (!entry.getName().startsWith(prefix)) {
                     throw new GradleException("Invalid entry: " + entry.getName());
                 }
@@ -57,22 +119,65 @@ public abstract class ExtractIDE extends DefaultTask {
 
                 Path target = targetDir.resolve(targetName);
                 if (entry.isDirectory()) {
-                    Files.createDirectories(targetDir);
+                    ensureDirectory(target);
                 } else {
-                    if (Files.exists(target)) {
+                    // The target directory is empty, so only the archive itself can contain duplicates
+                    if (!names.add(targetName)) {
                         throw new GradleException("Duplicate entry: " + entry.getName());
                     }
 
-                    Files.createDirectories(target.getParent());
+                    ensureDirectory(target.getParent());
                     if (entry.isSymbolicLink()) {
                         Files.createSymbolicLink(target, Path.of(entry.getLinkName()));
+                    } else if (writers == null || entry.getSize() > MAX_BYTES_IN_FLIGHT) {
+                        if (store != null && entry.getSize() <= ContentStore.MAX_BLOB_SIZE) {
+                            store.link(store.put(tar.readNBytes((int) entry.getSize())), target);
+                        } else {
+                            try (var output = Files.newOutputStream(target)) {
+                                tar.transferTo(output);
+                            }
+                        }
                     } else {
-                        try (var output = Files.newOutputStream(target)) {
-                            tar.transferTo(output);
+                        int size = (int) entry.getSize();
+                        bytesInFlight.acquireUninterruptibly(size);
+                        byte[] content;
+                        try {
+                            content = tar.readNBytes(size);
+                        } catch (Throwable e) {
+                            bytesInFlight.release(size);
+                            throw e;
                         }
+
+                        writers.execute(() -> {
+                            try {
+                                if (store != null && size <= ContentStore.MAX_BLOB_SIZE) {
+                                    store.link(store.put(content), target);
+                                } else {
+                                    Files.write(target, content, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                                }
+                            } catch (Throwable e) {
+                                failure.compareAndSet(null, e);
+                            } finally {
+                                bytesInFlight.release(size);
+                            }
+                        });
                     }
                 }
             }
+        } finally {
+            if (writers != null) {
+                writers.close();
+            }
+        }
+
+        Throwable e = failure.get();
+        if (e != null) {
+            throw new GradleException("Failed to extract " + getSourceFile().get(), e);
+        }
+
+        if (store != null) {
+            LOGGER.lifecycle("Content store: {} new blobs, {} reused blobs", store.getNewBlobs(), store.getReusedBlobs());
+            store.evict();
         }
     }
 }
@@ -0,0 +1,46 @@
+package org.glavo.build.tasks;
+
+import org.glavo.build.Arch;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+
+public interface NativeTarget {
+
+    @Input
+    @Optional
+    Property<Arch> getTargetArch();
+
+    @Input
+    @Optional
+    Property<String> getZig();
+
+    @Input
+    @Optional
+    Property<String> getCC();
+
+    @Input
+    @Optional
+    Property<String> getCXX();
+
+    @Input
+    @Optional
+    Property<String> getMake();
+
+    @Input
+    @Optional
+    Property<String> getCMake();
+
+    @Input
+    @Optional
+    Property<String> getGo();
+
+    @Input
+    @Optional
+    Property<String> getCargo();
+
+    @OutputFile
+    RegularFileProperty getOutputFile();
+}
@@ -1,24 +1,14 @@
 package org.glavo.build.tasks;
 
 import org.glavo.build.Arch;
-import org.glavo.build.Product;
 import org.glavo.build.transformer.IDETransformer;
-import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
 
 
-public abstract class TransformIDE extends DefaultTask {
-
-    @Input
-    public abstract Property<Arch> getIDEBaseArch();
-
-    @Input
-    public abstract Property<Product> getIDEProduct();
-
-    @InputFile
-    public abstract RegularFileProperty getIDEBaseTar();
+public abstract class TransformIDE extends AbstractTransformIDE implements TransformTarget {
 
     @Input
     public abstract Property<Arch> getIDETargetArch();
@@ -30,12 +20,17 @@ public abstract class TransformIDE extends DefaultTask {
     @InputFile
     public abstract RegularFileProperty getJDKArchive();
 
+    @Optional
     @OutputFile
     public abstract RegularFileProperty getTargetFile();
 
+    @Optional
+    @OutputDirectory
+    public abstract DirectoryProperty getTargetDir();
+
     @TaskAction
     public void run() throws Throwable {
-        try (var transformer = new IDETransformer(this) {}) {
+        try (var transformer = new IDETransformer(this, this, null) {}) {
             transformer.doTransform();
         }
     }
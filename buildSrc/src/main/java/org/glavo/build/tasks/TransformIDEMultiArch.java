@@ -0,0 +1,86 @@
+package org.glavo.build.tasks;
+
+import org.glavo.build.transformer.IDETransformer;
+import org.glavo.build.util.ReadAheadInputStream;
+import org.gradle.api.Action;
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public abstract class TransformIDEMultiArch extends AbstractTransformIDE {
+
+    private final List<TransformTarget> targets = new ArrayList<>();
+
+    @Nested
+    public List<TransformTarget> getTargets() {
+        return targets;
+    }
+
+    public void target(Action<? super TransformTarget> action) {
+        TransformTarget target = getProject().getObjects().newInstance(TransformTarget.class);
+        action.execute(target);
+        targets.add(target);
+    }
+
+    @TaskAction
+    public void run() throws Throwable {
+        if (targets.isEmpty()) {
+            throw new GradleException("No targets");
+        }
+
+        Path baseTar = getIDEBaseTar().get().getAsFile().toPath();
+        InputStream source = IDETransformer.openArchive(IDETransformer.createTarCache(this), baseTar);
+        List<ReadAheadInputStream> inputs = ReadAheadInputStream.broadcast(source, baseTar.getFileName().toString(), targets.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(targets.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < targets.size(); i++) {
+                TransformTarget target = targets.get(i);
+                InputStream input = inputs.get(i);
+                futures.add(executor.submit(() -> {
+                    try (var transformer = new IDETransformer(this, target, input) {}) {
+                        transformer.doTransform();
+                    } catch (Exception | Error e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        throw new GradleException("Failed to transform " + (target.getTargetFile().isPresent()
+                                ? target.getTargetFile().get()
+                                : target.getTargetDir().get()), e);
+                    }
+                    return null;
+                }));
+            }
+
+            Throwable exception = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (exception == null) {
+                        exception = e.getCause();
+                    } else {
+                        exception.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        } finally {
+            executor.shutdownNow();
+            for (ReadAheadInputStream input : inputs) {
+                input.close();
+            }
+        }
+    }
+}
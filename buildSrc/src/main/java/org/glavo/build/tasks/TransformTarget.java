@@ -0,0 +1,53 @@
+package org.glavo.build.tasks;
+
+import org.glavo.build.Arch;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.OutputFiles;
+
+import java.io.File;
+import java.util.List;
+
+public interface TransformTarget {
+
+    @Input
+    Property<Arch> getIDETargetArch();
+
+    @InputFile
+    RegularFileProperty getIDENativesZipFile();
+
+    @Optional
+    @InputFile
+    RegularFileProperty getJDKArchive();
+
+    @Optional
+    @OutputFile
+    RegularFileProperty getTargetFile();
+
+    // The transformed IDE installed as a directory tree, with or without the target file
+    @Optional
+    @OutputDirectory
+    DirectoryProperty getTargetDir();
+
+    // The report, index and block manifest written next to the target file (or directory), missing ones are ignored
+    @OutputFiles
+    default List<File> getSidecarFiles() {
+        if (getTargetFile().isPresent()) {
+            File file = getTargetFile().get().getAsFile();
+            return List.of(
+                    new File(file.getPath() + ".report.json"),
+                    new File(file.getPath() + ".index"),
+                    new File(file.getPath() + ".blocks"));
+        }
+        if (getTargetDir().isPresent()) {
+            return List.of(new File(getTargetDir().get().getAsFile().getPath() + ".report.json"));
+        }
+        return List.of();
+    }
+}
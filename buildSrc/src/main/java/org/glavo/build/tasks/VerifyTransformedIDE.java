@@ -0,0 +1,166 @@
+package org.glavo.build.tasks;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.glavo.build.Arch;
+import org.glavo.build.ArchiveCodec;
+import org.glavo.build.util.ElfHeader;
+import org.glavo.build.util.ReadAheadInputStream;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Checks a transformed IDE archive in one pass: the machine of every ELF file and the architecture in
+ * {@code product-info.json} must match the target architecture. Also reports the size of each directory.
+ */
+public abstract class VerifyTransformedIDE extends DefaultTask {
+    private static final Logger LOGGER = Logging.getLogger(VerifyTransformedIDE.class);
+
+    @InputFile
+    public abstract RegularFileProperty getArchive();
+
+    @Input
+    public abstract Property<Arch> getTargetArch();
+
+    // Prefixes of paths (relative to the IDE root) that may contain binaries for other architectures
+    @Input
+    @Optional
+    public abstract ListProperty<String> getIgnoredPaths();
+
+    @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    private static boolean isNativeCandidate(TarArchiveEntry entry) {
+        String name = entry.getName();
+        return name.endsWith(".so") || name.contains(".so.") || (entry.getMode() & 0111) != 0;
+    }
+
+    // Sizes are reported for the first two directory levels below the IDE root, e.g. plugins and plugins/<name>
+    private static void addSize(Map<String, Long> directorySizes, String relativePath, long size) {
+        directorySizes.merge(".", size, Long::sum);
+        int first = relativePath.indexOf('/');
+        if (first >= 0) {
+            directorySizes.merge(relativePath.substring(0, first), size, Long::sum);
+            int second = relativePath.indexOf('/', first + 1);
+            if (second >= 0) {
+                directorySizes.merge(relativePath.substring(0, second), size, Long::sum);
+            }
+        }
+    }
+
+    @TaskAction
+    public void run() throws IOException {
+        Arch targetArch = getTargetArch().get();
+        List<String> ignoredPaths = getIgnoredPaths().getOrElse(List.of());
+        Path archive = getArchive().get().getAsFile().toPath();
+
+        Map<String, Long> directorySizes = new TreeMap<>();
+        List<String> problems = new ArrayList<>();
+        int elfFiles = 0;
+        boolean foundProductInfo = false;
+
+        // Inflating is done by the read-ahead thread, the checks only look at a few bytes of each entry
+        try (var tar = new TarArchiveInputStream(new ReadAheadInputStream(
+                ArchiveCodec.open(archive), archive.getFileName().toString()))) {
+            String root = null;
+            byte[] header = new byte[ElfHeader.PREFIX_SIZE];
+
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                String name = entry.getName();
+                int idx = name.indexOf('/');
+                String entryRoot = idx < 0 ? name : name.substring(0, idx + 1);
+                if (root == null) {
+                    root = entryRoot;
+                } else if (!root.equals(entryRoot)) {
+                    problems.add("Entry outside of " + root + ": " + name);
+                    continue;
+                }
+
+                if (!entry.isFile()) {
+                    continue;
+                }
+
+                String relativePath = name.substring(root.length());
+                addSize(directorySizes, relativePath, entry.getSize());
+
+                if (relativePath.equals("product-info.json")) {
+                    foundProductInfo = true;
+                    checkProductInfo(tar.readAllBytes(), targetArch, problems);
+                } else if (isNativeCandidate(entry) && ignoredPaths.stream().noneMatch(relativePath::startsWith)) {
+                    int length = tar.readNBytes(header, 0, header.length);
+                    ElfHeader elf = ElfHeader.parse(header, 0, length);
+                    if (elf != null) {
+                        elfFiles++;
+                        if (elf.machine() != targetArch.getElfMachine()) {
+                            problems.add("%s is built for %s".formatted(relativePath, elf.describe()));
+                        }
+                    }
+                }
+            }
+        }
+
+        if (!foundProductInfo) {
+            problems.add("Missing product-info.json");
+        }
+
+        var report = new StringBuilder();
+        report.append("Archive: ").append(archive.getFileName()).append('\n');
+        report.append("Target: ").append(targetArch.normalize()).append('\n');
+        report.append("ELF files: ").append(elfFiles).append('\n');
+        report.append('\n');
+        directorySizes.forEach((directory, size) -> report.append("%10.2f MiB  %s%n".formatted(size / 1024.0 / 1024.0, directory)));
+        if (!problems.isEmpty()) {
+            report.append('\n');
+            problems.stream().sorted().forEach(it -> report.append("ERROR: ").append(it).append('\n'));
+        }
+
+        Path reportFile = getReportFile().get().getAsFile().toPath();
+        Files.createDirectories(reportFile.getParent());
+        Files.writeString(reportFile, report);
+        LOGGER.info(report.toString());
+
+        if (!problems.isEmpty()) {
+            problems.stream().sorted().forEach(LOGGER::error);
+            throw new GradleException("%s has %d problems, see %s".formatted(archive.getFileName(), problems.size(), reportFile));
+        }
+        LOGGER.lifecycle("Verified {}: {} ELF files, all {}", archive.getFileName(), elfFiles, targetArch.normalize());
+    }
+
+    private static void checkProductInfo(byte[] content, Arch targetArch, List<String> problems) {
+        JsonObject productInfo = JsonParser.parseReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)).getAsJsonObject();
+        var launches = productInfo.getAsJsonArray("launch");
+        if (launches == null || launches.isEmpty()) {
+            problems.add("product-info.json: no launch");
+            return;
+        }
+
+        for (JsonElement launch : launches) {
+            JsonElement arch = launch.getAsJsonObject().get("arch");
+            if (arch == null || !arch.getAsString().equals(targetArch.normalize())) {
+                problems.add("product-info.json: launch arch is %s".formatted(arch));
+            }
+        }
+    }
+}
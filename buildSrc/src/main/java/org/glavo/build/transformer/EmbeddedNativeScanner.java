@@ -0,0 +1,164 @@
+package org.glavo.build.transformer;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.glavo.build.Arch;
+import org.glavo.build.util.StageMetrics;
+import org.glavo.build.util.TailBuffer;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lists the native libraries embedded in jars that exist for x86_64 or the base architecture,
+ * but not for the target architecture. Only the central directories of the jars are read.
+ */
+final class EmbeddedNativeScanner implements AutoCloseable {
+    private static final Logger LOGGER = Logging.getLogger(EmbeddedNativeScanner.class);
+
+    // Bytes kept from the end of each jar, smaller jars are kept whole
+    static final int MAX_TAIL_SIZE = 16 * 1024 * 1024;
+
+    // Upper bound of the buffered jar tails waiting to be scanned
+    private static final int MAX_BYTES_IN_FLIGHT = 256 * 1024 * 1024;
+
+    private static final Pattern ARCH_PATTERN = Pattern.compile(
+            "(?<![a-z0-9])(x86[-_]64|amd64|x64|aarch_?64|arm64|riscv64|loongarch64|loong64)(?![a-z0-9])");
+
+    private static Arch archOf(String name) {
+        return switch (name) {
+            case "aarch64", "aarch_64", "arm64" -> Arch.AARCH64;
+            case "riscv64" -> Arch.RISCV64;
+            case "loongarch64", "loong64" -> Arch.LOONGARCH64;
+            default -> Arch.X86_64;
+        };
+    }
+
+    private static boolean isNativeLibrary(String name) {
+        return name.endsWith(".so") || name.contains(".so.");
+    }
+
+    private final Set<Arch> sourceArches;
+    private final Arch targetArch;
+    private final StageMetrics metrics;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final Semaphore bytesInFlight = new Semaphore(MAX_BYTES_IN_FLIGHT);
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final List<Future<List<String>>> results = new ArrayList<>();
+
+    EmbeddedNativeScanner(Arch baseArch, Arch targetArch, StageMetrics metrics) {
+        this.sourceArches = EnumSet.of(Arch.X86_64, baseArch);
+        this.targetArch = targetArch;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Scans the jar asynchronously, {@code jar} holds the end of the jar with its central directory.
+     */
+    void submit(String path, TailBuffer jar) throws InterruptedException {
+        int permits = Math.min(jar.capacity(), MAX_BYTES_IN_FLIGHT);
+        bytesInFlight.acquire(permits);
+        metrics.updatePeak("jarScanBufferedBytes", bufferedBytes.addAndGet(permits));
+        try {
+            results.add(executor.submit(() -> {
+                long startTime = System.nanoTime();
+                try {
+                    return scan(path, jar);
+                } finally {
+                    metrics.stage("jarScan").end(startTime, jar.size());
+                    bufferedBytes.addAndGet(-permits);
+                    bytesInFlight.release(permits);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            bufferedBytes.addAndGet(-permits);
+            bytesInFlight.release(permits);
+            throw e;
+        }
+    }
+
+    private List<String> scan(String path, TailBuffer jar) throws IOException {
+        // The name of each library with the architecture replaced by a placeholder, and the architectures it exists for
+        Map<String, EnumSet<Arch>> libraries = new HashMap<>();
+        Map<String, String> examples = new HashMap<>();
+
+        List<ZipArchiveEntry> entries;
+        try (var channel = jar.openChannel();
+             var zip = ZipFile.builder().setSeekableByteChannel(channel).setIgnoreLocalFileHeader(true).get()) {
+            entries = Collections.list(zip.getEntries());
+        } catch (IOException e) {
+            if (jar.isComplete()) {
+                throw new IOException("Failed to read " + path, e);
+            }
+            LOGGER.warn("The central directory of {} is not within its last {} bytes, skipping it", path, jar.capacity());
+            return List.of();
+        }
+
+        for (ZipArchiveEntry entry : entries) {
+            String name = entry.getName();
+            if (entry.isDirectory() || !isNativeLibrary(name)) {
+                continue;
+            }
+
+            Matcher matcher = ARCH_PATTERN.matcher(name.toLowerCase(Locale.ROOT));
+            if (!matcher.find()) {
+                continue;
+            }
+
+            String key = name.substring(0, matcher.start()) + "{arch}" + name.substring(matcher.end());
+            libraries.computeIfAbsent(key, k -> EnumSet.noneOf(Arch.class)).add(archOf(matcher.group()));
+            examples.putIfAbsent(key, name);
+        }
+
+        List<String> missing = new ArrayList<>();
+        libraries.forEach((key, arches) -> {
+            if (!arches.contains(targetArch) && !Collections.disjoint(arches, sourceArches)) {
+                missing.add("%s!/%s (%s)".formatted(path, examples.get(key),
+                        arches.stream().map(Arch::normalize).sorted().toList()));
+            }
+        });
+        return missing;
+    }
+
+    /**
+     * Waits for all submitted jars and returns the libraries without a counterpart for the target architecture.
+     */
+    List<String> finish() throws InterruptedException {
+        List<String> missing = new ArrayList<>();
+        GradleException exception = null;
+        for (Future<List<String>> result : results) {
+            try {
+                missing.addAll(result.get());
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    exception = new GradleException("Failed to scan jars for native libraries", e.getCause());
+                } else {
+                    exception.addSuppressed(e.getCause());
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        Collections.sort(missing);
+        return missing;
+    }
+
+    // Jars that are still queued are dropped, their tails are only held in memory
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdownNow();
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOGGER.warn("Timed out waiting for the jar scanner to stop");
+        }
+        results.clear();
+    }
+}
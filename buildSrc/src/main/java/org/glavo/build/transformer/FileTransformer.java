@@ -4,6 +4,9 @@ import kala.function.CheckedFunction;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
 
 public sealed interface FileTransformer {
 
@@ -18,4 +21,16 @@ public sealed interface FileTransformer {
 
     record Transform(CheckedFunction<byte[], byte[], IOException> action) implements FileTransformer {
     }
+
+    // Transforms the content without buffering it in memory; the output is spooled to learn its size
+    record StreamTransform(Action action) implements FileTransformer {
+        @FunctionalInterface
+        public interface Action {
+            void transform(InputStream input, OutputStream output) throws IOException;
+        }
+    }
+
+    // Replaces entries of a zip file without inflating the others
+    record PatchZip(Map<String, byte[]> replacements) implements FileTransformer {
+    }
 }
@@ -6,11 +6,27 @@ import kala.collection.mutable.MutableList;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.tar.TarFile;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.glavo.build.Arch;
+import org.glavo.build.ArchiveCodec;
 import org.glavo.build.Product;
+import org.glavo.build.util.DirectoryWriter;
+import org.glavo.build.util.ElfHeader;
 import org.glavo.build.util.IOBuffer;
+import org.glavo.build.util.IncrementalBlockStore;
 import org.glavo.build.util.OpenHelper;
-import org.glavo.build.tasks.TransformIDE;
+import org.glavo.build.util.ParallelGZIPOutputStream;
+import org.glavo.build.util.ReadAheadInputStream;
+import org.glavo.build.util.Spool;
+import org.glavo.build.util.StageMetrics;
+import org.glavo.build.util.TailBuffer;
+import org.glavo.build.util.TarCache;
+import org.glavo.build.util.TarIndex;
+import org.glavo.build.tasks.AbstractTransformIDE;
+import org.glavo.build.tasks.TransformTarget;
 import org.glavo.build.util.Utils;
 import org.gradle.api.GradleException;
 import org.gradle.api.logging.Logger;
@@ -19,17 +35,19 @@ import org.jetbrains.annotations.MustBeInvokedByOverriders;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.zip.*;
 
-import static java.util.Objects.requireNonNullElse;
-
 public abstract class IDETransformer implements AutoCloseable {
     private static final Gson GSON = new GsonBuilder()
             .setPrettyPrinting()
@@ -38,42 +56,135 @@ public abstract class IDETransformer implements AutoCloseable {
 
     public static final Logger LOGGER = Logging.getLogger(IDETransformer.class);
 
-    protected final TransformIDE task;
+    protected final AbstractTransformIDE task;
+    protected final TransformTarget target;
     protected final Product product;
     protected final Arch baseArch;
     protected final Arch targetArch;
 
     protected final ZipFile nativesZip;
     protected final TarArchiveInputStream tarInput;
-    protected final TarArchiveOutputStream tarOutput;
+    protected final @Nullable TarArchiveOutputStream tarOutput;
+    private final @Nullable DirectoryWriter directoryWriter;
+
+    // The content of the current entry is written here, to the archive and/or the target directory
+    private OutputStream entryOutput = OutputStream.nullOutputStream();
+    private @Nullable OutputStream fileOutput;
+    private String prefix;
+    // Only present for gzip output, which is the only codec supported in incremental mode
+    private final @Nullable ParallelGZIPOutputStream gzipOutput;
+    private final @Nullable IncrementalBlockStore blockStore;
+    private final TarIndex.@Nullable Writer indexWriter;
+    private boolean separateBlock = false;
+
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+    private static final long SEPARATE_BLOCK_ENTRY_SIZE = 64 * 1024;
+
+    // Peak of the entry content held in memory by transformers
+    private static final String BUFFERED_BYTES = "bufferedBytes";
 
-    protected final IOBuffer buffer = new IOBuffer();
+    protected final IOBuffer buffer = IOBuffer.acquire();
+    protected final StageMetrics metrics = new StageMetrics();
 
     private final OpenHelper helper = new OpenHelper();
 
-    public IDETransformer(TransformIDE task) throws Throwable {
+    private final @Nullable TarCache tarCache;
+    private final @Nullable Long sourceDateEpoch;
+    private final @Nullable EmbeddedNativeScanner jarScanner;
+
+    public IDETransformer(AbstractTransformIDE task, TransformTarget target, @Nullable InputStream baseTar) throws Throwable {
         this.task = task;
+        this.target = target;
 
         this.product = task.getIDEProduct().get();
         this.baseArch = task.getIDEBaseArch().get();
-        this.targetArch = task.getIDETargetArch().get();
+        this.targetArch = target.getIDETargetArch().get();
+        this.tarCache = createTarCache(task);
+        this.sourceDateEpoch = task.getSourceDateEpoch().getOrNull();
 
         try {
-            this.nativesZip = helper.register(new ZipFile(task.getIDENativesZipFile().get().getAsFile()));
-            this.tarInput = helper.register(new TarArchiveInputStream(
-                    helper.register(new GZIPInputStream(
-                            helper.register(Files.newInputStream(task.getIDEBaseTar().get().getAsFile().toPath()))))));
-            this.tarOutput = helper.register(new TarArchiveOutputStream(
-                    helper.register(new GZIPOutputStream(
-                            helper.register(Files.newOutputStream(task.getTargetFile().get().getAsFile().toPath(),
-                                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))))));
-            tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            if (baseTar != null) {
+                helper.register(baseTar);
+            }
+            this.nativesZip = helper.register(new ZipFile(target.getIDENativesZipFile().get().getAsFile()));
+            this.tarInput = helper.register(new TarArchiveInputStream(metrics.stage("inflate").meter(baseTar != null
+                    ? baseTar
+                    : helper.register(openArchive(tarCache, task.getIDEBaseTar().get().getAsFile().toPath())))));
+            if (!target.getTargetFile().isPresent() && !target.getTargetDir().isPresent()) {
+                throw new GradleException("Neither target file nor target directory is set");
+            }
+
+            if (target.getTargetFile().isPresent()) {
+                Path targetFile = target.getTargetFile().get().getAsFile().toPath();
+                ArchiveCodec codec = task.getOutputCodec().getOrElse(ArchiveCodec.GZIP);
+                if (!targetFile.getFileName().toString().endsWith("." + codec.getExtension())) {
+                    throw new GradleException("The extension of %s does not match %s".formatted(targetFile, codec));
+                }
+                if (task.getIncremental().getOrElse(false) && codec != ArchiveCodec.GZIP) {
+                    throw new GradleException("Incremental mode is not supported for " + codec);
+                }
+                if (task.getWriteIndex().getOrElse(false) && codec != ArchiveCodec.GZIP) {
+                    throw new GradleException("Index is not supported for " + codec);
+                }
+
+                this.blockStore = task.getIncremental().getOrElse(false) ? helper.register(new IncrementalBlockStore(targetFile)) : null;
+                OutputStream compressedOutput = helper.register(codec.compress(
+                        helper.register(Files.newOutputStream(targetFile,
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)),
+                        task.getCompressionThreads().getOrElse(ParallelGZIPOutputStream.defaultThreads())));
+                this.gzipOutput = compressedOutput instanceof ParallelGZIPOutputStream gzip ? gzip : null;
+                this.indexWriter = task.getWriteIndex().getOrElse(false) ? new TarIndex.Writer() : null;
+                if (indexWriter == null) {
+                    Files.deleteIfExists(TarIndex.indexFile(targetFile));
+                }
+                if (gzipOutput != null) {
+                    gzipOutput.setBlockStore(blockStore);
+                    if (indexWriter != null) {
+                        gzipOutput.setIndependentBlocks(true);
+                        gzipOutput.setBlockListener(indexWriter);
+                    }
+                }
+                // In incremental mode every record is passed through immediately, so that entries can start new gzip blocks.
+                // For the index, this makes the offset of each entry known as soon as its header is written
+                this.tarOutput = helper.register(blockStore != null || indexWriter != null
+                        ? new TarArchiveOutputStream(metrics.stage("deflate").meter(compressedOutput), TarConstants.DEFAULT_RCDSIZE)
+                        : new TarArchiveOutputStream(metrics.stage("deflate").meter(compressedOutput)));
+                tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            } else {
+                this.blockStore = null;
+                this.gzipOutput = null;
+                this.indexWriter = null;
+                this.tarOutput = null;
+            }
+            this.directoryWriter = target.getTargetDir().isPresent()
+                    ? helper.register(new DirectoryWriter(target.getTargetDir().get().getAsFile().toPath()))
+                    : null;
+            this.jarScanner = task.getScanJars().getOrElse(false) ? helper.register(new EmbeddedNativeScanner(baseArch, targetArch, metrics)) : null;
         } catch (Throwable e) {
             helper.onException(e);
             throw e;
         }
     }
 
+    public static @Nullable TarCache createTarCache(AbstractTransformIDE task) {
+        return task.getTarCacheDir().isPresent()
+                ? new TarCache(task.getTarCacheDir().get().getAsFile().toPath(), task.getTarCacheMaxSize().getOrElse(TarCache.DEFAULT_MAX_SIZE))
+                : null;
+    }
+
+    public static InputStream openArchive(@Nullable TarCache tarCache, Path file) throws IOException {
+        if (tarCache != null) {
+            FileChannel cached = tarCache.getCached(file);
+            if (cached != null) {
+                return new BufferedInputStream(Channels.newInputStream(cached), INPUT_BUFFER_SIZE);
+            }
+            // The cache is filled on the read-ahead thread while the archive is inflated for the transform
+            return new ReadAheadInputStream(tarCache.fill(file), file.getFileName().toString());
+        }
+
+        return new ReadAheadInputStream(ArchiveCodec.open(file), file.getFileName().toString());
+    }
+
     protected final FileTransformer.Replace getNativeReplacement(String path) throws IOException {
         return getNativeReplacement(path, null);
     }
@@ -129,8 +240,8 @@ public abstract class IDETransformer implements AutoCloseable {
                     new FileTransformer.Replace(stream.readAllBytes(), "lib/jna/%s/libjnidispatch.so".formatted(targetArch.normalize())));
         }
 
-        transformer.put("product-info.json", new FileTransformer.Transform(raw -> {
-            JsonObject productInfo = GSON.fromJson(new String(raw), JsonObject.class);
+        transformer.put("product-info.json", new FileTransformer.StreamTransform((input, output) -> {
+            JsonObject productInfo = GSON.fromJson(new InputStreamReader(input, StandardCharsets.UTF_8), JsonObject.class);
             JsonObject result = new JsonObject();
 
             productInfo.asMap().forEach((key, value) -> {
@@ -141,7 +252,7 @@ public abstract class IDETransformer implements AutoCloseable {
                     }
 
                     var launch = launchArray.get(0).getAsJsonObject();
-                    launch.addProperty("arch", task.getIDETargetArch().get().normalize());
+                    launch.addProperty("arch", targetArch.normalize());
                     processAdditionalJvmArguments(launch);
 
                     for (JsonElement element : launch.getAsJsonArray("customCommands")) {
@@ -155,14 +266,18 @@ public abstract class IDETransformer implements AutoCloseable {
                 }
             });
 
-            return GSON.toJson(result).getBytes(StandardCharsets.UTF_8);
+            var writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+            GSON.toJson(result, writer);
+            writer.flush();
         }));
 
-        transformer.put("bin/%s.sh".formatted(product.getLauncherName()), new FileTransformer.Transform(raw -> {
-            var result = new StringBuilder();
+        transformer.put("bin/%s.sh".formatted(product.getLauncherName()), new FileTransformer.StreamTransform((input, output) -> {
+            var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            var result = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
 
             boolean foundVMOptions = false;
-            for (String line : new String(raw).lines().toList()) {
+            String line;
+            while ((line = reader.readLine()) != null) {
                 if (line.contains("-Didea.vendor.name=JetBrains") && line.endsWith("\\")) {
                     if (foundVMOptions) {
                         throw new GradleException("Duplicate JVM options");
@@ -179,8 +294,8 @@ public abstract class IDETransformer implements AutoCloseable {
                     args.set(idx, "\"-Djna.boot.library.path=$IDE_HOME/lib/jna/" + targetArch.normalize() + "\"");
                     args.joinTo(result, " ", "  ", " \\\n");
                 } else {
-                    result.append(line);
-                    result.append('\n');
+                    result.write(line);
+                    result.write('\n');
                 }
             }
 
@@ -188,59 +303,126 @@ public abstract class IDETransformer implements AutoCloseable {
                 throw new GradleException("No VM options found");
             }
 
-            return result.toString().getBytes(StandardCharsets.UTF_8);
+            result.flush();
         }));
 
         if (targetArch == Arch.LOONGARCH64) {
-            transformer.put("lib/util.jar", new FileTransformer.Transform(raw -> {
-                var buffer = new ByteArrayOutputStream();
-                try (var input = new ZipInputStream(new ByteArrayInputStream(raw));
-                     var output = new ZipOutputStream(buffer)) {
-
-                    boolean foundOSFacadeImpl = false;
-                    ZipEntry zipEntry;
-                    while ((zipEntry = input.getNextEntry()) != null) {
-                        if (zipEntry.getName().equals("com/pty4j/unix/linux/OSFacadeImpl.class")) {
-                            if (foundOSFacadeImpl) {
-                                throw new GradleException("Duplicate OSFacadeImpl");
-                            }
-                            foundOSFacadeImpl = true;
+            byte[] osFacadeImpl;
+            try (var stream = IDETransformer.class.getResourceAsStream("OSFacadeImpl.class.bin")) {
+                //noinspection DataFlowIssue
+                osFacadeImpl = stream.readAllBytes();
+            }
 
-                            byte[] bytes;
-                            try (var stream = IDETransformer.class.getResourceAsStream("OSFacadeImpl.class.bin")) {
-                                //noinspection DataFlowIssue
-                                bytes = stream.readAllBytes();
-                            }
+            transformer.put("lib/util.jar", new FileTransformer.PatchZip(
+                    Map.of("com/pty4j/unix/linux/OSFacadeImpl.class", osFacadeImpl)));
+        }
 
-                            ZipEntry newEntry = new ZipEntry(zipEntry.getName());
-                            newEntry.setSize(bytes.length);
+        return transformer;
+    }
 
-                            output.putNextEntry(newEntry);
-                            output.write(bytes);
-                            output.closeEntry();
-                        } else {
-                            output.putNextEntry(zipEntry);
-                            this.buffer.copy(input, output);
-                            output.closeEntry();
-                        }
+    // In incremental mode, large entries are put in their own gzip blocks, so that their compressed blocks
+    // do not depend on the position of the entry in the archive and can be reused when other entries change
+    private void putArchiveEntry(TarArchiveEntry entry) throws IOException {
+        if (sourceDateEpoch != null) {
+            Utils.normalizeTarEntry(entry, sourceDateEpoch);
+        }
+        separateBlock = gzipOutput != null && blockStore != null && entry.getSize() >= SEPARATE_BLOCK_ENTRY_SIZE;
+        if (separateBlock) {
+            gzipOutput.endBlock();
+        }
+        if (tarOutput != null) {
+            tarOutput.putArchiveEntry(entry);
+            if (indexWriter != null) {
+                indexWriter.addEntry(entry, tarOutput.getBytesWritten());
+            }
+        }
+
+        if (directoryWriter != null) {
+            if (!entry.getName().startsWith(prefix)) {
+                throw new GradleException("Invalid entry: " + entry.getName());
+            }
+            String name = entry.getName().substring(prefix.length());
+            if (entry.isDirectory()) {
+                directoryWriter.createDirectory(name, entry.getMode());
+            } else if (entry.isSymbolicLink()) {
+                directoryWriter.createSymbolicLink(name, entry.getLinkName());
+            } else if (entry.isLink()) {
+                throw new GradleException("Unable handle link: " + entry.getName());
+            } else {
+                fileOutput = directoryWriter.createFile(name, entry.getSize(), entry.getMode());
+            }
+        }
+
+        if (tarOutput != null && fileOutput != null) {
+            entryOutput = new TeeOutputStream(tarOutput, fileOutput);
+        } else if (tarOutput != null) {
+            entryOutput = tarOutput;
+        } else if (fileOutput != null) {
+            entryOutput = fileOutput;
+        }
+    }
+
+    private void closeArchiveEntry() throws IOException {
+        entryOutput = OutputStream.nullOutputStream();
+        if (fileOutput != null) {
+            fileOutput.close();
+            fileOutput = null;
+        }
+        if (tarOutput != null) {
+            tarOutput.closeArchiveEntry();
+        }
+        if (separateBlock) {
+            gzipOutput.endBlock();
+        }
+    }
+
+    private interface JRESource {
+        @Nullable TarArchiveEntry nextEntry() throws IOException;
+
+        void copyData(TarArchiveEntry entry) throws IOException;
+    }
+
+    private void copyJRE(String jbrPrefix) throws IOException {
+        Path jdkArchive = target.getJDKArchive().get().getAsFile().toPath();
+        FileChannel channel = tarCache != null ? tarCache.getCached(jdkArchive) : null;
+        if (channel != null) {
+            // The inflated tar is random access, so entry data is read directly at its offset in large chunks.
+            // Only positional reads are used, so the TarFile and the copies share the channel
+            try (channel; var jreTar = new TarFile(channel)) {
+                var iterator = jreTar.getEntries().iterator();
+                copyJRE(jbrPrefix, new JRESource() {
+                    @Override
+                    public @Nullable TarArchiveEntry nextEntry() {
+                        return iterator.hasNext() ? iterator.next() : null;
                     }
 
-                    if (!foundOSFacadeImpl) {
-                        throw new GradleException("OSFacadeImpl not found");
+                    @Override
+                    public void copyData(TarArchiveEntry entry) throws IOException {
+                        buffer.copy(channel, entry.getDataOffset(), entry.getSize(), entryOutput);
+                    }
+                });
+            }
+        } else {
+            try (var jreTar = new TarArchiveInputStream(openArchive(tarCache, jdkArchive))) {
+                copyJRE(jbrPrefix, new JRESource() {
+                    @Override
+                    public @Nullable TarArchiveEntry nextEntry() throws IOException {
+                        return jreTar.getNextEntry();
                     }
-                }
 
-                return buffer.toByteArray();
-            }));
+                    @Override
+                    public void copyData(TarArchiveEntry entry) throws IOException {
+                        buffer.copy(jreTar, entryOutput, entry.getSize());
+                    }
+                });
+            }
         }
-
-        return transformer;
     }
 
-    private void copyJRE(String jbrPrefix, TarArchiveInputStream jreTar) throws IOException {
-        TarArchiveEntry entry = jreTar.getNextEntry();
+    private void copyJRE(String jbrPrefix, JRESource jreTar) throws IOException {
+        TarArchiveEntry entry = jreTar.nextEntry();
         if (entry == null) {
-            throw new GradleException(task.getJDKArchive().get().getAsFile() + " is empty");
+            throw new GradleException(target.getJDKArchive().get().getAsFile() + " is empty");
         }
 
         int idx = entry.getName().indexOf('/');
@@ -249,6 +431,7 @@ public abstract class IDETransformer implements AutoCloseable {
         }
 
         String prefix = entry.getName().substring(0, idx + 1);
+        StageMetrics.Stage stage = metrics.stage("jre");
 
         do {
             if (!entry.getName().startsWith(prefix)) {
@@ -256,20 +439,25 @@ public abstract class IDETransformer implements AutoCloseable {
             }
             String newName = jbrPrefix + entry.getName().substring(prefix.length());
 
-            LOGGER.info("Copying {}/{} to {}", task.getJDKArchive().get().getAsFile().getName(), entry.getName(), newName);
+            LOGGER.info("Copying {}/{} to {}", target.getJDKArchive().get().getAsFile().getName(), entry.getName(), newName);
+            long startTime = stage.start();
             entry.setName(newName);
-            tarOutput.putArchiveEntry(entry);
-            buffer.copy(jreTar, tarOutput);
-            tarOutput.closeArchiveEntry();
-        } while ((entry = jreTar.getNextEntry()) != null);
+            putArchiveEntry(entry);
+            if (!entry.isSymbolicLink() && !entry.isLink()) {
+                jreTar.copyData(entry);
+            }
+            closeArchiveEntry();
+            stage.end(startTime, entry.getSize());
+        } while ((entry = jreTar.nextEntry()) != null);
     }
 
     public void doTransform() throws Throwable {
-        String prefix;
+        long transformStartTime = System.nanoTime();
+
         {
             TarArchiveEntry it = tarInput.getNextEntry();
             if (it == null || !it.isDirectory()) {
-                throw new GradleException("Invalid directory entry: ${it.name}");
+                throw new GradleException("Invalid directory entry: " + (it == null ? null : it.getName()));
             }
             prefix = it.getName();
         }
@@ -283,6 +471,14 @@ public abstract class IDETransformer implements AutoCloseable {
 
         boolean processedJbr = false;
 
+        // ELF files for the base architecture that are copied as is, found by looking at the head of copied entries
+        List<String> uncoveredNatives = new ArrayList<>();
+        List<String> jarNativesWithoutCounterpart = List.of();
+        boolean sniffNatives = baseArch.getElfMachine() != targetArch.getElfMachine();
+
+        StageMetrics.Stage copyStage = metrics.stage("copy");
+        StageMetrics.Stage transformStage = metrics.stage("transform");
+
         TarArchiveEntry entry;
         while ((entry = tarInput.getNextEntry()) != null) {
             String path = entry.getName();
@@ -290,11 +486,9 @@ public abstract class IDETransformer implements AutoCloseable {
             if (path.startsWith(jbrPrefix)) {
                 if (path.equals(jbrPrefix)) {
                     processedJbr = true;
-                    if (task.getJDKArchive().isPresent()) {
-                        LOGGER.lifecycle("Copying JRE from {}", task.getJDKArchive().get());
-                        try (var jreTar = new TarArchiveInputStream(new GZIPInputStream(Files.newInputStream(task.getJDKArchive().get().getAsFile().toPath())))) {
-                            copyJRE(jbrPrefix, jreTar);
-                        }
+                    if (target.getJDKArchive().isPresent()) {
+                        LOGGER.lifecycle("Copying JRE from {}", target.getJDKArchive().get());
+                        copyJRE(jbrPrefix);
                     } else {
                         LOGGER.warn("No JRE provided");
                     }
@@ -302,35 +496,95 @@ public abstract class IDETransformer implements AutoCloseable {
                     LOGGER.info("Skip JBR entry: {}", path);
                 }
             } else if (transformers.remove(path) instanceof FileTransformer transformer) {
+                metrics.count("transformer." + transformer.getClass().getSimpleName());
                 switch (transformer) {
                     case FileTransformer.Replace replace -> {
-                        LOGGER.lifecycle("TRANSFORM: Replace {} with {}/{}", entry.getName(), task.getIDENativesZipFile().get().getAsFile().getName(), replace.replacement());
-
-                        var newEntry = Utils.copyTarEntry(entry, requireNonNullElse(replace.targetPath(), entry.getName()), replace.replacement().length);
-                        tarOutput.putArchiveEntry(newEntry);
-                        tarOutput.write(replace.replacement());
-                        tarOutput.closeArchiveEntry();
+                        // The target path is relative to the IDE root, like the paths of the transformers
+                        String newName = replace.targetPath() != null ? prefix + replace.targetPath() : entry.getName();
+                        LOGGER.lifecycle("TRANSFORM: Replace {} with {} from {}", entry.getName(), newName, target.getIDENativesZipFile().get().getAsFile().getName());
+
+                        long startTime = transformStage.start();
+                        var newEntry = Utils.copyTarEntry(entry, newName, replace.replacement().length);
+                        putArchiveEntry(newEntry);
+                        entryOutput.write(replace.replacement());
+                        closeArchiveEntry();
+                        metrics.updatePeak(BUFFERED_BYTES, replace.replacement().length);
+                        transformStage.end(startTime, newEntry.getSize());
                     }
                     case FileTransformer.FilterOut ignored -> {
                         LOGGER.lifecycle("TRANSFORM: Filter out {}", entry.getName());
                     }
+                    case FileTransformer.PatchZip patch -> {
+                        LOGGER.lifecycle("TRANSFORM: Patch {} ({})", path, patch.replacements().keySet());
+                        long startTime = transformStage.start();
+                        try (var input = new Spool(task.getTemporaryDir().toPath());
+                             var output = new Spool(task.getTemporaryDir().toPath())) {
+                            try (var out = input.openOutput()) {
+                                buffer.copy(tarInput, out, entry.getSize());
+                            }
+                            try (var channel = input.openChannel();
+                                 var out = output.openOutput()) {
+                                ZipPatcher.patch(channel, out, path, patch.replacements());
+                            }
+
+                            putArchiveEntry(Utils.copyTarEntry(entry, output.size()));
+                            output.copyTo(entryOutput, buffer);
+                            closeArchiveEntry();
+                            metrics.updatePeak(BUFFERED_BYTES, bufferedBytes(input) + bufferedBytes(output));
+                            transformStage.end(startTime, output.size());
+                        }
+                    }
+                    case FileTransformer.StreamTransform transform -> {
+                        LOGGER.lifecycle("TRANSFORM: Transform {}", path);
+                        long startTime = transformStage.start();
+                        try (var spool = new Spool(task.getTemporaryDir().toPath())) {
+                            try (var output = spool.openOutput()) {
+                                transform.action().transform(CloseShieldInputStream.wrap(tarInput), output);
+                            }
+                            putArchiveEntry(Utils.copyTarEntry(entry, spool.size()));
+                            spool.copyTo(entryOutput, buffer);
+                            closeArchiveEntry();
+                            metrics.updatePeak(BUFFERED_BYTES, bufferedBytes(spool));
+                            transformStage.end(startTime, spool.size());
+                        }
+                    }
                     case FileTransformer.Transform transform -> {
                         LOGGER.lifecycle("TRANSFORM: Transform {}", path);
-                        byte[] result = transform.action().apply(tarInput.readAllBytes());
-                        tarOutput.putArchiveEntry(Utils.copyTarEntry(entry, result.length));
-                        tarOutput.write(result);
-                        tarOutput.closeArchiveEntry();
+                        long startTime = transformStage.start();
+                        byte[] content = tarInput.readAllBytes();
+                        byte[] result = transform.action().apply(content);
+                        putArchiveEntry(Utils.copyTarEntry(entry, result.length));
+                        entryOutput.write(result);
+                        closeArchiveEntry();
+                        metrics.updatePeak(BUFFERED_BYTES, (long) content.length + result.length);
+                        transformStage.end(startTime, result.length);
                     }
                 }
             } else if (entry.isSymbolicLink()) {
                 LOGGER.info("Copying symbolic link {} -> {}", path, entry.getLinkName());
-                tarOutput.putArchiveEntry(entry);
-                tarOutput.closeArchiveEntry();
+                putArchiveEntry(entry);
+                closeArchiveEntry();
             } else {
                 LOGGER.info("Copying {}", path);
-                tarOutput.putArchiveEntry(entry);
-                buffer.copy(tarInput, tarOutput);
-                tarOutput.closeArchiveEntry();
+                long startTime = copyStage.start();
+                putArchiveEntry(entry);
+                if (jarScanner != null && path.endsWith(".jar")) {
+                    // Only the end of the jar, which holds its central directory, is kept while it is copied
+                    var jar = new TailBuffer((int) Math.min(entry.getSize(), EmbeddedNativeScanner.MAX_TAIL_SIZE));
+                    buffer.copy(tarInput, new TeeOutputStream(entryOutput, jar), entry.getSize());
+                    jarScanner.submit(path.substring(prefix.length()), jar);
+                } else if (sniffNatives) {
+                    buffer.copy(tarInput, entryOutput, entry.getSize(), ElfHeader.PREFIX_SIZE, (head, length) -> {
+                        ElfHeader elf = ElfHeader.parse(head, 0, length);
+                        if (elf != null && elf.machine() == baseArch.getElfMachine()) {
+                            uncoveredNatives.add(path.substring(prefix.length()));
+                        }
+                    });
+                } else {
+                    buffer.copy(tarInput, entryOutput, entry.getSize());
+                }
+                closeArchiveEntry();
+                copyStage.end(startTime, entry.getSize());
             }
         }
 
@@ -341,10 +595,79 @@ public abstract class IDETransformer implements AutoCloseable {
         if (!processedJbr) {
             throw new GradleException("No JBR found");
         }
+
+        if (!uncoveredNatives.isEmpty()) {
+            LOGGER.warn("{} {} files are not replaced by any transformer:", uncoveredNatives.size(), baseArch.normalize());
+            for (String path : uncoveredNatives) {
+                LOGGER.warn("  {}", path);
+            }
+            if (task.getFailOnUncoveredNatives().getOrElse(false)) {
+                throw new GradleException("Found %d uncovered %s files in %s".formatted(
+                        uncoveredNatives.size(), baseArch.normalize(), task.getIDEBaseTar().get().getAsFile().getName()));
+            }
+        }
+
+        if (jarScanner != null) {
+            jarNativesWithoutCounterpart = jarScanner.finish();
+            if (!jarNativesWithoutCounterpart.isEmpty()) {
+                LOGGER.warn("{} native libraries in jars have no {} counterpart:", jarNativesWithoutCounterpart.size(), targetArch.normalize());
+                for (String library : jarNativesWithoutCounterpart) {
+                    LOGGER.warn("  {}", library);
+                }
+            }
+        }
+
+        // Close the archive here rather than in close(), so that the report can include the compressed size
+        if (tarOutput != null) {
+            tarOutput.close();
+        }
+        if (blockStore != null) {
+            blockStore.commit();
+        }
+        if (indexWriter != null) {
+            indexWriter.write(target.getTargetFile().get().getAsFile().toPath());
+        }
+        if (directoryWriter != null) {
+            directoryWriter.finish();
+        }
+
+        metrics.log(LOGGER, getReportBase().getFileName().toString());
+        writeReport(System.nanoTime() - transformStartTime, uncoveredNatives, jarNativesWithoutCounterpart);
+    }
+
+    private static long bufferedBytes(Spool spool) {
+        return spool.isSpilled() ? 0 : spool.size();
+    }
+
+    private Path getReportBase() {
+        return target.getTargetFile().isPresent()
+                ? target.getTargetFile().get().getAsFile().toPath()
+                : target.getTargetDir().get().getAsFile().toPath();
+    }
+
+    // Written next to the target file (or directory), e.g. build/target/<name>.tar.gz.report.json
+    private void writeReport(long nanos, List<String> uncoveredNatives, List<String> jarNativesWithoutCounterpart) throws IOException {
+        Path reportBase = getReportBase();
+
+        JsonObject report = metrics.toJson();
+        report.addProperty("product", product.getProductCode());
+        report.addProperty("baseArch", baseArch.normalize());
+        report.addProperty("targetArch", targetArch.normalize());
+        report.addProperty("nanos", nanos);
+        report.addProperty("bytesIn", metrics.stage("inflate").getBytes());
+        if (tarOutput != null) {
+            report.addProperty("bytesOut", metrics.stage("deflate").getBytes());
+            report.addProperty("compressedBytesOut", Files.size(reportBase));
+        }
+        report.add("uncoveredNatives", GSON.toJsonTree(uncoveredNatives));
+        report.add("jarNativesWithoutCounterpart", GSON.toJsonTree(jarNativesWithoutCounterpart));
+
+        Files.writeString(reportBase.resolveSibling(reportBase.getFileName() + ".report.json"), GSON.toJson(report));
     }
 
     @Override
     public void close() throws Exception {
+        buffer.close();
         helper.close();
     }
 }
@@ -0,0 +1,77 @@
+package org.glavo.build.transformer;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.gradle.api.GradleException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Replaces entries of a zip file. The compressed data of all other entries is copied verbatim,
+ * so the cost is proportional to the size of the replacements rather than the size of the zip.
+ */
+public final class ZipPatcher {
+    private ZipPatcher() {
+    }
+
+    // The output does not need to be seekable, since all entries are written with known sizes
+    public static void patch(SeekableByteChannel input, OutputStream output, String name, Map<String, byte[]> replacements) throws IOException {
+        try (var zip = ZipFile.builder().setSeekableByteChannel(input).get();
+             var out = new ZipArchiveOutputStream(output)) {
+            patch(zip, out, name, replacements);
+        }
+    }
+
+    private static void patch(ZipFile zip, ZipArchiveOutputStream out, String name, Map<String, byte[]> replacements) throws IOException {
+        Set<String> patched = new HashSet<>();
+
+        for (ZipArchiveEntry entry : Collections.list(zip.getEntriesInPhysicalOrder())) {
+            byte[] replacement = replacements.get(entry.getName());
+            if (replacement == null) {
+                out.addRawArchiveEntry(entry, zip.getRawInputStream(entry));
+                continue;
+            }
+
+            if (!patched.add(entry.getName())) {
+                throw new GradleException("Duplicate " + entry.getName() + " in " + name);
+            }
+
+            var crc = new CRC32();
+            crc.update(replacement);
+
+            var compressed = new ByteArrayOutputStream(replacement.length);
+            var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try (var deflaterOutput = new DeflaterOutputStream(compressed, deflater)) {
+                deflaterOutput.write(replacement);
+            } finally {
+                deflater.end();
+            }
+
+            var newEntry = new ZipArchiveEntry(entry.getName());
+            newEntry.setMethod(ZipArchiveEntry.DEFLATED);
+            newEntry.setSize(replacement.length);
+            newEntry.setCompressedSize(compressed.size());
+            newEntry.setCrc(crc.getValue());
+            newEntry.setTime(entry.getTime());
+            out.addRawArchiveEntry(newEntry, new ByteArrayInputStream(compressed.toByteArray()));
+        }
+
+        if (patched.size() != replacements.size()) {
+            var missing = new HashSet<>(replacements.keySet());
+            missing.removeAll(patched);
+            throw new GradleException("These entries were not found in %s: %s".formatted(name, missing));
+        }
+    }
+}
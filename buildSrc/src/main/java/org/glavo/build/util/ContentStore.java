@@ -0,0 +1,195 @@
+package org.glavo.build.util;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * A content-addressed store of files, keyed by the SHA-256 of their content.
+ * Blobs are touched when they are reused, and {@link #evict()} trims the store to {@code maxSize}.
+ * <p>
+ * Files are placed into their destination as {@code FICLONE} reflinks, so the store only pays off where the file system
+ * supports them, see {@link #supportsReflinks(Path)}. They are never hardlinked, since the destination must stay writable
+ * without touching the blob. Content is hashed in memory, so an existing blob costs no write at all.
+ */
+public final class ContentStore {
+    private static final Logger LOGGER = Logging.getLogger(ContentStore.class);
+
+    public static final long DEFAULT_MAX_SIZE = 8L * 1024 * 1024 * 1024;
+
+    // Larger files are not stored, since their content would have to be held in memory to be hashed before writing
+    public static final int MAX_BLOB_SIZE = 64 * 1024 * 1024;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxSize;
+
+    private final LongAdder newBlobs = new LongAdder();
+    private final LongAdder reusedBlobs = new LongAdder();
+
+    public ContentStore(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    private Path blobPath(byte[] hash) {
+        String name = HexFormat.of().formatHex(hash);
+        return directory.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private Path commit(Path temp, byte[] hash) throws IOException {
+        Path blob = blobPath(hash);
+        if (Files.exists(blob)) {
+            Files.delete(temp);
+            reuse(blob);
+        } else {
+            Files.createDirectories(blob.getParent());
+            Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("r--r--r--"));
+            Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+            newBlobs.increment();
+        }
+        return blob;
+    }
+
+    public Path put(byte[] content) throws IOException {
+        byte[] hash = Utils.sha256().digest(content);
+        Path blob = blobPath(hash);
+        if (Files.exists(blob)) {
+            reuse(blob);
+            return blob;
+        }
+
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "blob", TEMP_SUFFIX);
+        try {
+            Files.write(temp, content);
+            return commit(temp, hash);
+        } catch (Throwable e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    // The last-modified time of a blob is the time it was last used
+    private void reuse(Path blob) throws IOException {
+        Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+        reusedBlobs.increment();
+    }
+
+    // Probes once whether blobs can be reflinked into the directory
+    public boolean supportsReflinks(Path targetDir) throws IOException {
+        Files.createDirectories(directory);
+        Files.createDirectories(targetDir);
+        Path source = Files.createTempFile(directory, "probe", TEMP_SUFFIX);
+        Path target = targetDir.resolve(source.getFileName());
+        try {
+            Files.write(source, new byte[]{0});
+            reflink(source, target);
+            return true;
+        } catch (LastErrorException | LinkageError e) {
+            LOGGER.info("Reflinks from {} into {} are not supported: {}", directory, targetDir, e.getMessage());
+            return false;
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+        }
+    }
+
+    public void link(Path blob, Path target) throws IOException {
+        try {
+            reflink(blob, target);
+            return;
+        } catch (LastErrorException e) {
+            LOGGER.info("Failed to reflink {}, copying it: {}", target, e.getMessage());
+        }
+
+        // The copy gets the mode of the read-only blob
+        Files.copy(blob, target);
+        Files.setPosixFilePermissions(target, PosixFilePermissions.fromString("rw-r--r--"));
+    }
+
+    public void evict() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        List<Path> blobs;
+        try (Stream<Path> stream = Files.walk(directory, 2)) {
+            blobs = stream.filter(file -> !file.getFileName().toString().endsWith(TEMP_SUFFIX) && Files.isRegularFile(file)).toList();
+        }
+
+        List<Path> evicted = Utils.evictLeastRecentlyUsed(blobs, maxSize, blob -> false);
+        if (!evicted.isEmpty()) {
+            LOGGER.lifecycle("Evicted {} blobs from {}", evicted.size(), directory);
+        }
+    }
+
+    public long getNewBlobs() {
+        return newBlobs.sum();
+    }
+
+    public long getReusedBlobs() {
+        return reusedBlobs.sum();
+    }
+
+    private interface LibC extends Library {
+        int O_RDONLY = 0;
+        int O_WRONLY = 01;
+        int O_CREAT = 0100;
+        int O_EXCL = 0200;
+
+        // _IOW(0x94, 9, int)
+        NativeLong FICLONE = new NativeLong(0x40049409L);
+
+        int open(String path, int flags, int mode) throws LastErrorException;
+
+        int close(int fd) throws LastErrorException;
+
+        int ioctl(int fd, NativeLong request, int arg) throws LastErrorException;
+    }
+
+    private static final class LibCHolder {
+        static final LibC INSTANCE = Native.load("c", LibC.class);
+    }
+
+    private static int open(LibC libc, Path path, int flags, int mode) throws IOException {
+        try {
+            return libc.open(path.toString(), flags, mode);
+        } catch (LastErrorException e) {
+            throw new IOException("Failed to open " + path, e);
+        }
+    }
+
+    // Throws LastErrorException if FICLONE fails, such as when the file system does not support reflinks
+    private static void reflink(Path source, Path target) throws IOException {
+        LibC libc = LibCHolder.INSTANCE;
+
+        int sourceFd = open(libc, source, LibC.O_RDONLY, 0);
+        try {
+            int targetFd = open(libc, target, LibC.O_WRONLY | LibC.O_CREAT | LibC.O_EXCL, 0644);
+            try {
+                libc.ioctl(targetFd, LibC.FICLONE, sourceFd);
+            } catch (LastErrorException e) {
+                libc.close(targetFd);
+                Files.deleteIfExists(target);
+                throw e;
+            }
+            libc.close(targetFd);
+        } finally {
+            libc.close(sourceFd);
+        }
+    }
+}
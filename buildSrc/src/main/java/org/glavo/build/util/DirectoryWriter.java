@@ -0,0 +1,183 @@
+package org.glavo.build.util;
+
+import org.gradle.api.GradleException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes entries of an archive into a directory tree, small files are written by virtual threads.
+ */
+public final class DirectoryWriter implements AutoCloseable {
+    // Upper bound of the file contents buffered but not yet written by the writer threads
+    private static final int MAX_BYTES_IN_FLIGHT = 256 * 1024 * 1024;
+    private static final int MAX_BUFFERED_FILE_SIZE = 16 * 1024 * 1024;
+
+    private final Path root;
+    private final Set<Path> createdDirectories = new HashSet<>();
+    // Applied by finish(), a read-only directory could not be filled otherwise
+    private final Map<Path, Integer> directoryModes = new HashMap<>();
+    private final ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore bytesInFlight = new Semaphore(MAX_BYTES_IN_FLIGHT);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // The target directory is cleared
+    public DirectoryWriter(Path root) throws IOException {
+        this.root = root;
+        Utils.deleteDirectory(root);
+        Files.createDirectories(root);
+        createdDirectories.add(root);
+    }
+
+    private Path resolve(String name) throws IOException {
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root)) {
+            throw new IOException("Invalid entry name: " + name);
+        }
+        return path;
+    }
+
+    private void ensureDirectory(Path dir) throws IOException {
+        if (createdDirectories.add(dir)) {
+            Files.createDirectories(dir);
+        }
+    }
+
+    private void checkFailure() {
+        Throwable e = failure.get();
+        if (e != null) {
+            throw new GradleException("Failed to write files into " + root, e);
+        }
+    }
+
+    public void createDirectory(String name, int mode) throws IOException {
+        Path path = resolve(name);
+        ensureDirectory(path);
+        directoryModes.put(path, mode);
+    }
+
+    public void createSymbolicLink(String name, String target) throws IOException {
+        Path path = resolve(name);
+        ensureDirectory(path.getParent());
+        Files.createSymbolicLink(path, Path.of(target));
+    }
+
+    /**
+     * The file is complete once the returned stream is closed.
+     */
+    public OutputStream createFile(String name, long size, int mode) throws IOException {
+        checkFailure();
+
+        Path path = resolve(name);
+        ensureDirectory(path.getParent());
+
+        if (size > MAX_BUFFERED_FILE_SIZE) {
+            return new FileOutput(path, mode);
+        }
+
+        int permits = (int) size;
+        bytesInFlight.acquireUninterruptibly(permits);
+        return new ByteArrayOutputStream(permits) {
+            private boolean closed = false;
+
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+
+                byte[] content = buf;
+                int length = count;
+                writers.execute(() -> {
+                    try {
+                        try (var output = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                            output.write(content, 0, length);
+                        }
+                        Files.setPosixFilePermissions(path, Utils.toPosixFilePermissions(mode));
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        bytesInFlight.release(permits);
+                    }
+                });
+            }
+        };
+    }
+
+    // Large files are written directly, channel inputs are transferred to them by IOBuffer
+    private static final class FileOutput extends OutputStream implements IOBuffer.ChannelOutput {
+        private final Path path;
+        private final int mode;
+        private final FileChannel channel;
+        private final OutputStream output;
+
+        FileOutput(Path path, int mode) throws IOException {
+            this.path = path;
+            this.mode = mode;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.output = Channels.newOutputStream(channel);
+        }
+
+        @Override
+        public WritableByteChannel getChannel() {
+            return channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            output.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            output.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                channel.close();
+                Files.setPosixFilePermissions(path, Utils.toPosixFilePermissions(mode));
+            }
+        }
+    }
+
+    // Waits for the pending writes, then applies the modes of the directories
+    public void finish() throws IOException {
+        writers.close();
+        checkFailure();
+
+        List<Path> directories = new ArrayList<>(directoryModes.keySet());
+        // Children first, so that the parents are still accessible
+        directories.sort(Comparator.comparingInt(Path::getNameCount).reversed());
+        for (Path directory : directories) {
+            Files.setPosixFilePermissions(directory, Utils.toPosixFilePermissions(directoryModes.get(directory)));
+        }
+    }
+
+    // Interrupts the pending writes and waits for the writer threads to stop
+    @Override
+    public void close() {
+        writers.shutdownNow();
+        writers.close();
+    }
+}
@@ -0,0 +1,40 @@
+package org.glavo.build.util;
+
+import org.glavo.build.Arch;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The part of an ELF header that identifies the target machine.
+ */
+public record ElfHeader(boolean is64Bit, boolean littleEndian, int machine) {
+    // e_ident and e_type are followed by e_machine
+    public static final int PREFIX_SIZE = 20;
+
+    public static boolean hasMagic(byte[] bytes, int offset, int length) {
+        return length >= 4
+                && bytes[offset] == 0x7f
+                && bytes[offset + 1] == 'E'
+                && bytes[offset + 2] == 'L'
+                && bytes[offset + 3] == 'F';
+    }
+
+    public static @Nullable ElfHeader parse(byte[] bytes, int offset, int length) {
+        if (length < PREFIX_SIZE || !hasMagic(bytes, offset, length)) {
+            return null;
+        }
+
+        boolean littleEndian = bytes[offset + 5] == 1;
+        int b0 = bytes[offset + 18] & 0xff;
+        int b1 = bytes[offset + 19] & 0xff;
+        return new ElfHeader(bytes[offset + 4] == 2, littleEndian, littleEndian ? b0 | (b1 << 8) : (b0 << 8) | b1);
+    }
+
+    public @Nullable Arch arch() {
+        return Arch.ofElfMachine(machine);
+    }
+
+    public String describe() {
+        Arch arch = arch();
+        return arch != null ? arch.normalize() : "machine " + machine;
+    }
+}
@@ -1,18 +1,236 @@
 package org.glavo.build.util;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+/**
+ * Copy buffers, the heap buffer grows with the size of the copied entries.
+ * <p>
+ * Channel reads go through an off-heap buffer, and when both sides are channels the data is transferred without it.
+ * Buffers from {@link #acquire()} are returned to a per-thread pool on {@link #close()}. The pool holds them softly
+ * and trims the heap buffer first, so the long-lived daemon threads keep at most {@link #MAX_RETAINED_BUFFER_SIZE}
+ * on heap and one off-heap buffer each.
+ */
+public final class IOBuffer implements AutoCloseable {
+    private static final int MIN_BUFFER_SIZE = 32 * 1024;
+    private static final int MAX_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int CHANNEL_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<SoftReference<IOBuffer>> POOL = new ThreadLocal<>();
+
+    // The pooled buffer of the current thread, or a new one if it is in use or was collected
+    public static IOBuffer acquire() {
+        SoftReference<IOBuffer> reference = POOL.get();
+        IOBuffer buffer = reference != null ? reference.get() : null;
+        if (buffer != null) {
+            POOL.remove();
+            buffer.released = false;
+            return buffer;
+        }
+        return new IOBuffer(MIN_BUFFER_SIZE, MAX_BUFFER_SIZE, true);
+    }
+
+    /**
+     * Implemented by output streams backed by a channel, so that channel inputs are transferred to it directly.
+     */
+    public interface ChannelOutput {
+        WritableByteChannel getChannel();
+    }
+
+    private final int minBufferSize;
+    private final int maxBufferSize;
+    private final boolean pooled;
+    private boolean released = false;
+    private byte @Nullable [] buffer;
+    private @Nullable ByteBuffer channelBuffer;
+
+    public IOBuffer() {
+        this(MIN_BUFFER_SIZE, MAX_BUFFER_SIZE, false);
+    }
+
+    // A buffer of fixed size, which does not grow
+    public IOBuffer(int bufferSize) {
+        this(bufferSize, bufferSize, false);
+    }
+
+    private IOBuffer(int minBufferSize, int maxBufferSize, boolean pooled) {
+        this.minBufferSize = minBufferSize;
+        this.maxBufferSize = maxBufferSize;
+        this.pooled = pooled;
+    }
 
-public final class IOBuffer {
-    private static final int BUFFER_SIZE = 32 * 1024;
+    private byte[] buffer(long sizeHint) {
+        if (buffer == null) {
+            buffer = new byte[minBufferSize];
+        }
+        if (sizeHint > buffer.length && buffer.length < maxBufferSize) {
+            // Power of two, so that entries of similar sizes do not reallocate it
+            long size = Long.highestOneBit(sizeHint - 1) << 1;
+            buffer = new byte[(int) Math.min(size, maxBufferSize)];
+        }
+        return buffer;
+    }
+
+    private ByteBuffer channelBuffer() {
+        if (channelBuffer == null) {
+            channelBuffer = ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE);
+        }
+        return channelBuffer;
+    }
 
-    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private static @Nullable WritableByteChannel channelOf(OutputStream output) {
+        return switch (output) {
+            case FileOutputStream fileOutput -> fileOutput.getChannel();
+            case ChannelOutput channelOutput -> channelOutput.getChannel();
+            default -> null;
+        };
+    }
 
     public void copy(InputStream input, OutputStream output) throws IOException {
+        copy(input, output, 0L);
+    }
+
+    // The size hint is the expected size of the input, such as the size of the tar entry
+    public void copy(InputStream input, OutputStream output, long sizeHint) throws IOException {
+        if (sizeHint > 0 && input instanceof FileInputStream fileInput) {
+            WritableByteChannel target = channelOf(output);
+            if (target != null) {
+                // Only the expected size is transferred, anything after it is copied below
+                FileChannel channel = fileInput.getChannel();
+                long position = channel.position();
+                long transferred = transfer(channel, position, Math.min(sizeHint, channel.size() - position), target);
+                channel.position(position + transferred);
+            }
+        }
+
+        byte[] buffer = buffer(sizeHint);
         int read;
-        while ((read = input.read(buffer, 0, BUFFER_SIZE)) >= 0) {
+        while ((read = input.read(buffer, 0, buffer.length)) >= 0) {
             output.write(buffer, 0, read);
         }
     }
+
+    @FunctionalInterface
+    public interface HeadInspector {
+        void inspect(byte[] head, int length) throws IOException;
+    }
+
+    // Passes the first headSize bytes (fewer if the input is shorter) to the inspector before copying them
+    public void copy(InputStream input, OutputStream output, long sizeHint, int headSize, HeadInspector inspector) throws IOException {
+        byte[] buffer = buffer(sizeHint);
+        int n = input.readNBytes(buffer, 0, Math.min(headSize, buffer.length));
+        inspector.inspect(buffer, n);
+        output.write(buffer, 0, n);
+        copy(input, output, sizeHint - n);
+    }
+
+    public void copy(FileChannel input, long position, long size, OutputStream output) throws IOException {
+        long end = position + size;
+
+        WritableByteChannel target = channelOf(output);
+        if (target != null) {
+            // The rest, if any, is copied through the buffer below
+            position += transfer(input, position, size, target);
+        }
+
+        while (position < end) {
+            ByteBuffer channelBuffer = channelBuffer();
+            channelBuffer.clear().limit((int) Math.min(channelBuffer.capacity(), end - position));
+            int read = input.read(channelBuffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + input);
+            }
+            channelBuffer.flip();
+            copy(channelBuffer, output);
+            position += read;
+        }
+    }
+
+    // Returns the number of bytes transferred, it stops early when transferTo makes no progress
+    private static long transfer(FileChannel input, long position, long size, WritableByteChannel output) throws IOException {
+        long transferred = 0;
+        while (transferred < size) {
+            long n = input.transferTo(position + transferred, size - transferred, output);
+            if (n <= 0) {
+                break;
+            }
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    public void copy(ByteBuffer input, OutputStream output) throws IOException {
+        if (input.hasArray()) {
+            output.write(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            input.position(input.limit());
+            return;
+        }
+
+        WritableByteChannel target = channelOf(output);
+        if (target != null) {
+            while (input.hasRemaining()) {
+                target.write(input);
+            }
+            return;
+        }
+
+        byte[] buffer = buffer(input.remaining());
+        while (input.hasRemaining()) {
+            int n = Math.min(buffer.length, input.remaining());
+            input.get(buffer, 0, n);
+            output.write(buffer, 0, n);
+        }
+    }
+
+    // Reads the input until its end or until more than limit bytes were read, returns the number of bytes read
+    public long drain(InputStream input, long limit) throws IOException {
+        byte[] buffer = buffer(0L);
+        long drained = 0;
+        int n;
+        while (drained <= limit && (n = input.read(buffer, 0, buffer.length)) >= 0) {
+            drained += n;
+        }
+        return drained;
+    }
+
+    public void update(MessageDigest digest, InputStream input) throws IOException {
+        byte[] buffer = buffer(CHANNEL_BUFFER_SIZE);
+        int read;
+        while ((read = input.read(buffer, 0, buffer.length)) >= 0) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    public void update(MessageDigest digest, FileChannel input) throws IOException {
+        ByteBuffer channelBuffer = channelBuffer();
+        while (input.read(channelBuffer.clear()) >= 0) {
+            digest.update(channelBuffer.flip());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!pooled) {
+            buffer = null;
+            channelBuffer = null;
+        } else if (!released) {
+            released = true;
+            if (buffer != null && buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+                buffer = null;
+            }
+            POOL.set(new SoftReference<>(this));
+        }
+    }
 }
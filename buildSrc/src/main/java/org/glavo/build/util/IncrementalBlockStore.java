@@ -0,0 +1,155 @@
+package org.glavo.build.util;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reuses compressed blocks of the previous output of a {@link ParallelGZIPOutputStream}.
+ * <p>
+ * The blocks of each output are recorded in a {@code <output>.blocks} manifest (content hash, offset and length),
+ * which ends with the size and gzip trailer of the output it describes.
+ * On the next run, the previous output is kept aside and every block whose content hash is listed
+ * in its manifest is copied from it instead of being deflated again.
+ * The previous output and its manifest are only dropped once the new output is committed, and put back otherwise.
+ */
+public final class IncrementalBlockStore implements ParallelGZIPOutputStream.BlockStore, AutoCloseable {
+    private static final Logger LOGGER = Logging.getLogger(IncrementalBlockStore.class);
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private record Location(long offset, int length) {
+    }
+
+    private final Path output;
+    private final Path manifestFile;
+    private final Path newManifestFile;
+    private final Path previousOutput;
+    private final Map<String, Location> previousBlocks = new HashMap<>();
+    private final @Nullable FileChannel previousChannel;
+    private final BufferedWriter manifestWriter;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private boolean committed = false;
+
+    public IncrementalBlockStore(Path output) throws IOException {
+        this.output = output;
+        this.manifestFile = output.resolveSibling(output.getFileName() + ".blocks");
+        this.newManifestFile = output.resolveSibling(output.getFileName() + ".blocks.tmp");
+        this.previousOutput = output.resolveSibling(output.getFileName() + ".prev");
+
+        if (Files.isRegularFile(previousOutput)) {
+            if (Files.isRegularFile(manifestFile) && loadManifest(previousOutput)) {
+                // An earlier run was interrupted before it could put the previous output back
+                LOGGER.warn("Restoring {} from {}", output, previousOutput);
+                Files.move(previousOutput, output, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(previousOutput);
+            }
+            previousBlocks.clear();
+        }
+
+        if (Files.isRegularFile(output) && Files.isRegularFile(manifestFile) && loadManifest(output)) {
+            Files.move(output, previousOutput);
+            this.previousChannel = FileChannel.open(previousOutput);
+        } else {
+            previousBlocks.clear();
+            Files.deleteIfExists(manifestFile);
+            this.previousChannel = null;
+        }
+
+        this.manifestWriter = Files.newBufferedWriter(newManifestFile);
+    }
+
+    // Returns false if the manifest does not describe the file
+    private boolean loadManifest(Path file) throws IOException {
+        String end = null;
+        for (String line : Files.readAllLines(manifestFile)) {
+            String[] parts = line.split(" ");
+            if (parts[0].equals("end")) {
+                end = line;
+            } else if (parts.length == 3) {
+                previousBlocks.put(parts[0], new Location(Long.parseLong(parts[1]), Integer.parseInt(parts[2])));
+            }
+        }
+
+        if (end == null || !end.equals("end " + Utils.describeGzip(file))) {
+            LOGGER.warn("{} is out of date, ignoring previous output", manifestFile);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public byte @Nullable [] lookup(byte[] key) throws IOException {
+        Location location = previousChannel != null ? previousBlocks.get(HEX.formatHex(key)) : null;
+        if (location == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        var buffer = ByteBuffer.allocate(location.length);
+        while (buffer.hasRemaining()) {
+            if (previousChannel.read(buffer, location.offset + buffer.position()) < 0) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        hits.incrementAndGet();
+        return buffer.array();
+    }
+
+    @Override
+    public void onBlockWritten(byte[] key, long compressedOffset, int compressedLength) throws IOException {
+        manifestWriter.write(HEX.formatHex(key));
+        manifestWriter.write(' ');
+        manifestWriter.write(Long.toString(compressedOffset));
+        manifestWriter.write(' ');
+        manifestWriter.write(Integer.toString(compressedLength));
+        manifestWriter.write('\n');
+    }
+
+    // Must be called after the output has been completely written
+    public void commit() throws IOException {
+        manifestWriter.write("end " + Utils.describeGzip(output));
+        manifestWriter.write('\n');
+        manifestWriter.close();
+        Files.move(newManifestFile, manifestFile, StandardCopyOption.REPLACE_EXISTING);
+        committed = true;
+
+        LOGGER.lifecycle("Incremental: reused {} blocks, compressed {} blocks", hits.get(), misses.get());
+    }
+
+    // Without a commit, the partial output is replaced by the previous one, which its manifest still describes
+    @Override
+    public void close() throws IOException {
+        try {
+            manifestWriter.close();
+            if (previousChannel != null) {
+                previousChannel.close();
+            }
+        } finally {
+            if (committed) {
+                Files.deleteIfExists(previousOutput);
+            } else {
+                Files.deleteIfExists(newManifestFile);
+                if (previousChannel != null) {
+                    Files.move(previousOutput, output, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package org.glavo.build.util;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A pigz-style gzip writer: fixed-size blocks are deflated concurrently, each primed with the tail of
+ * the previous block as its dictionary and sync-flushed, so they concatenate into a single-member gzip stream.
+ * <p>
+ * With a {@link BlockStore} the blocks are compressed independently (without dictionary) and identified by the
+ * SHA-256 of their content, which allows compressed blocks of a previous output to be reused.
+ * Independent blocks can also be requested explicitly, so that inflating can start at any block, see {@link TarIndex}.
+ */
+public final class ParallelGZIPOutputStream extends FilterOutputStream {
+    private static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b,  // magic
+            Deflater.DEFLATED,  // method
+            0,                  // flags
+            0, 0, 0, 0,         // mtime
+            0,                  // extra flags
+            (byte) 0xff         // OS: unknown
+    };
+
+    public static int defaultThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public interface BlockStore {
+        // Called concurrently from worker threads
+        byte @Nullable [] lookup(byte[] key) throws IOException;
+
+        // Called in output order
+        void onBlockWritten(byte[] key, long compressedOffset, int compressedLength) throws IOException;
+    }
+
+    public interface BlockListener {
+        // Called in output order
+        void onBlockWritten(long uncompressedOffset, long compressedOffset, int compressedLength) throws IOException;
+    }
+
+    private record CompressedBlock(byte @Nullable [] key, long uncompressedOffset, byte[] bytes) {
+    }
+
+    private final int level;
+    private final int blockSize;
+    private final int maxPendingBlocks;
+    private final ExecutorService executor;
+
+    private final CRC32 crc = new CRC32();
+    private long totalIn = 0L;
+    private long totalOut = 0L;
+
+    private final ArrayDeque<Future<CompressedBlock>> pending = new ArrayDeque<>();
+    private @Nullable BlockStore blockStore;
+    private @Nullable BlockListener blockListener;
+    private boolean independentBlocks = false;
+
+    private byte[] block;
+    private int blockLength = 0;
+    private byte[] previousBlock;
+    private int previousBlockLength = 0;
+
+    private boolean closed = false;
+
+    public ParallelGZIPOutputStream(OutputStream out, int threads) throws IOException {
+        this(out, threads, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+    }
+
+    public ParallelGZIPOutputStream(OutputStream out, int threads, int level, int blockSize) throws IOException {
+        super(out);
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads: " + threads);
+        }
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("blockSize: " + blockSize);
+        }
+
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxPendingBlocks = threads * 2;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "ParallelGZIPOutputStream-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.block = new byte[blockSize];
+
+        out.write(HEADER);
+        totalOut += HEADER.length;
+    }
+
+    public void setBlockStore(@Nullable BlockStore blockStore) {
+        this.blockStore = blockStore;
+    }
+
+    public void setBlockListener(@Nullable BlockListener blockListener) {
+        this.blockListener = blockListener;
+    }
+
+    public void setIndependentBlocks(boolean independentBlocks) {
+        this.independentBlocks = independentBlocks;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        if (blockLength == blockSize) {
+            submitBlock(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+
+            if (blockLength == blockSize) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    public void endBlock() throws IOException {
+        ensureOpen();
+        if (blockLength > 0) {
+            submitBlock(false);
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        final byte[] input = block;
+        final int inputLength = blockLength;
+        final BlockStore store = this.blockStore;
+        final byte[] dictionary = store == null && !independentBlocks ? previousBlock : null;
+        final long uncompressedOffset = totalIn;
+        final int dictionaryOffset = Math.max(0, previousBlockLength - DICTIONARY_SIZE);
+        final int dictionaryLength = dictionary == null ? 0 : previousBlockLength - dictionaryOffset;
+
+        crc.update(input, 0, inputLength);
+        totalIn += inputLength;
+
+        pending.addLast(executor.submit(() -> {
+            if (store == null) {
+                return new CompressedBlock(null, uncompressedOffset, deflate(input, inputLength, dictionary, dictionaryOffset, dictionaryLength, last));
+            }
+
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(input, 0, inputLength);
+            digest.update((byte) (last ? 1 : 0));
+            byte[] key = digest.digest();
+
+            byte[] compressed = store.lookup(key);
+            if (compressed == null) {
+                compressed = deflate(input, inputLength, null, 0, 0, last);
+            }
+            return new CompressedBlock(key, uncompressedOffset, compressed);
+        }));
+
+        previousBlock = input;
+        previousBlockLength = inputLength;
+        block = last ? null : new byte[blockSize];
+        blockLength = 0;
+
+        while (pending.size() >= maxPendingBlocks) {
+            writeCompleted(pending.removeFirst());
+        }
+    }
+
+    private byte[] deflate(byte[] input, int inputLength,
+                           byte[] dictionary, int dictionaryOffset, int dictionaryLength,
+                           boolean last) {
+        var deflater = new Deflater(level, true);
+        try {
+            if (dictionaryLength > 0) {
+                deflater.setDictionary(dictionary, dictionaryOffset, dictionaryLength);
+            }
+            deflater.setInput(input, 0, inputLength);
+            if (last) {
+                deflater.finish();
+            }
+
+            byte[] result = new byte[inputLength + (inputLength >>> 3) + 64];
+            int resultLength = 0;
+            while (true) {
+                resultLength += deflater.deflate(result, resultLength, result.length - resultLength,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+
+                if (last ? deflater.finished() : resultLength < result.length) {
+                    break;
+                }
+
+                if (resultLength == result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+            }
+            return Arrays.copyOf(result, resultLength);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeCompleted(Future<CompressedBlock> future) throws IOException {
+        CompressedBlock compressed;
+        try {
+            compressed = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+        out.write(compressed.bytes);
+        if (blockStore != null && compressed.key != null) {
+            blockStore.onBlockWritten(compressed.key, totalOut, compressed.bytes.length);
+        }
+        if (blockListener != null) {
+            blockListener.onBlockWritten(compressed.uncompressedOffset, totalOut, compressed.bytes.length);
+        }
+        totalOut += compressed.bytes.length;
+    }
+
+    private static void writeIntLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    public void finish() throws IOException {
+        ensureOpen();
+        if (block == null) {
+            return;
+        }
+
+        submitBlock(true);
+        while (!pending.isEmpty()) {
+            writeCompleted(pending.removeFirst());
+        }
+
+        byte[] trailer = new byte[8];
+        writeIntLE(trailer, 0, (int) crc.getValue());
+        writeIntLE(trailer, 4, (int) totalIn);
+        out.write(trailer);
+        out.flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            finish();
+        } finally {
+            closed = true;
+            for (Future<CompressedBlock> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+}
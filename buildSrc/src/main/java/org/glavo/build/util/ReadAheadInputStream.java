@@ -0,0 +1,202 @@
+package org.glavo.build.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the source stream on a background thread into a bounded queue of chunks,
+ * so that expensive decoding of the source (e.g. inflating) overlaps with the consumer.
+ * <p>
+ * With {@link #broadcast(InputStream, String, int)} the same chunks are handed to several consumers,
+ * so the source is only read once; the reader advances at the pace of the slowest consumer.
+ */
+public final class ReadAheadInputStream extends InputStream {
+    private static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    private static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    private record Chunk(byte[] bytes, int length, Throwable exception) {
+        static final Chunk END = new Chunk(new byte[0], -1, null);
+    }
+
+    public static List<ReadAheadInputStream> broadcast(InputStream source, String name, int consumers) {
+        return new Reader(source, name, DEFAULT_CHUNK_SIZE, DEFAULT_QUEUE_DEPTH, consumers).consumers;
+    }
+
+    private final Reader reader;
+    private final BlockingQueue<Chunk> queue;
+
+    private Chunk current;
+    private int position;
+    private volatile boolean closed = false;
+
+    public ReadAheadInputStream(InputStream source, String name) {
+        this(source, name, DEFAULT_CHUNK_SIZE, DEFAULT_QUEUE_DEPTH);
+    }
+
+    public ReadAheadInputStream(InputStream source, String name, int chunkSize, int queueDepth) {
+        this(new Reader(source, name, chunkSize, queueDepth, 0), queueDepth);
+        reader.consumers.add(this);
+        reader.start();
+    }
+
+    private ReadAheadInputStream(Reader reader, int queueDepth) {
+        this.reader = reader;
+        this.queue = new ArrayBlockingQueue<>(queueDepth);
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (current == Chunk.END) {
+            return false;
+        }
+
+        if (current != null && position < current.length) {
+            return true;
+        }
+
+        try {
+            current = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        position = 0;
+
+        if (current.exception != null) {
+            Throwable exception = current.exception;
+            current = Chunk.END;
+            if (exception instanceof IOException ioException) {
+                throw new IOException(ioException.getMessage(), ioException);
+            }
+            throw new IOException(exception);
+        }
+
+        return current != Chunk.END;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return nextChunk() ? current.bytes[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!nextChunk()) {
+            return -1;
+        }
+
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.bytes, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed || current == null || current == Chunk.END ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.clear();
+        reader.onConsumerClosed();
+    }
+
+    private static final class Reader implements Runnable {
+        private final InputStream source;
+        private final int chunkSize;
+        private final Thread thread;
+        private final List<ReadAheadInputStream> consumers = new ArrayList<>();
+        private final AtomicInteger openConsumers;
+
+        Reader(InputStream source, String name, int chunkSize, int queueDepth, int consumers) {
+            this.source = source;
+            this.chunkSize = chunkSize;
+            this.thread = new Thread(this, "ReadAhead-" + name);
+            this.thread.setDaemon(true);
+            this.openConsumers = new AtomicInteger(Math.max(consumers, 1));
+
+            for (int i = 0; i < consumers; i++) {
+                this.consumers.add(new ReadAheadInputStream(this, queueDepth));
+            }
+            if (consumers > 0) {
+                start();
+            }
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        private boolean publish(Chunk chunk) throws InterruptedException {
+            boolean published = false;
+            for (ReadAheadInputStream consumer : consumers) {
+                while (!consumer.closed) {
+                    if (consumer.queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                        published = true;
+                        break;
+                    }
+                }
+            }
+            return published;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    byte[] bytes = new byte[chunkSize];
+                    int length = source.readNBytes(bytes, 0, chunkSize);
+                    if (length > 0 && !publish(new Chunk(bytes, length, null))) {
+                        return;
+                    }
+                    if (length < chunkSize) {
+                        publish(Chunk.END);
+                        return;
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            } catch (Throwable e) {
+                try {
+                    publish(new Chunk(null, -1, e));
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+
+        void onConsumerClosed() throws IOException {
+            if (openConsumers.decrementAndGet() > 0) {
+                return;
+            }
+
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                source.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.glavo.build.util;
+
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Collects content of unknown size, e.g. the output of a transformer, so that its size is known
+ * before it is copied into an archive entry.
+ * <p>
+ * Content is kept in memory up to {@code memoryThreshold} bytes, larger content is spilled to a
+ * memory-mapped temp file, so the heap usage is bounded regardless of the size of the content.
+ */
+public final class Spool implements AutoCloseable {
+    public static final int DEFAULT_MEMORY_THRESHOLD = 4 * 1024 * 1024;
+
+    private static final int REGION_SIZE = 64 * 1024 * 1024;
+
+    private final Path directory;
+    private final int memoryThreshold;
+
+    private byte[] memory = new byte[8192];
+    private Path file;
+    private FileChannel fileChannel;
+    private MappedByteBuffer region;
+    private long regionOffset;
+
+    private long count = 0;
+    private boolean opened = false;
+    private boolean closed = false;
+
+    public Spool(Path directory) {
+        this(directory, DEFAULT_MEMORY_THRESHOLD);
+    }
+
+    public Spool(Path directory, int memoryThreshold) {
+        this.directory = directory;
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public OutputStream openOutput() {
+        if (opened) {
+            throw new IllegalStateException("Output already opened");
+        }
+        opened = true;
+
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                Spool.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    finishWrite();
+                }
+            }
+        };
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        if (file == null) {
+            if (count + len <= memoryThreshold) {
+                if (count + len > memory.length) {
+                    memory = Arrays.copyOf(memory, (int) Math.min(memoryThreshold, Math.max(count + len, memory.length * 2L)));
+                }
+                System.arraycopy(b, off, memory, (int) count, len);
+                count += len;
+                return;
+            }
+
+            spill();
+        }
+
+        while (len > 0) {
+            if (!region.hasRemaining()) {
+                regionOffset += region.capacity();
+                region = fileChannel.map(FileChannel.MapMode.READ_WRITE, regionOffset, REGION_SIZE);
+            }
+
+            int n = Math.min(len, region.remaining());
+            region.put(b, off, n);
+            off += n;
+            len -= n;
+            count += n;
+        }
+    }
+
+    private void spill() throws IOException {
+        file = Files.createTempFile(directory, "spool", ".tmp");
+        fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        regionOffset = 0;
+        region = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+        region.put(memory, 0, (int) count);
+        memory = null;
+    }
+
+    private void finishWrite() throws IOException {
+        if (fileChannel != null) {
+            FileChannel channel = fileChannel;
+            fileChannel = null;
+            region = null;
+            try (channel) {
+                channel.truncate(count);
+            }
+        }
+    }
+
+    public long size() {
+        if (!closed) {
+            throw new IllegalStateException("Output not closed");
+        }
+        return count;
+    }
+
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    public SeekableByteChannel openChannel() throws IOException {
+        long size = size();
+        return file == null
+                ? new SeekableInMemoryByteChannel(Arrays.copyOf(memory, (int) size))
+                : FileChannel.open(file);
+    }
+
+    public void copyTo(OutputStream target, IOBuffer buffer) throws IOException {
+        long size = size();
+        if (file == null) {
+            target.write(memory, 0, (int) size);
+            return;
+        }
+
+        try (var channel = FileChannel.open(file)) {
+            for (long position = 0; position < size; position += REGION_SIZE) {
+                buffer.copy(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position)), target);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!closed) {
+                closed = true;
+                finishWrite();
+            }
+        } finally {
+            memory = null;
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
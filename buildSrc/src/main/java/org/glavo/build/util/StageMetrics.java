@@ -0,0 +1,163 @@
+package org.glavo.build.util;
+
+import com.google.gson.JsonObject;
+import org.gradle.api.logging.Logger;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class StageMetrics {
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongAccumulator> peaks = new ConcurrentHashMap<>();
+
+    public Stage stage(String name) {
+        return stages.computeIfAbsent(name, Stage::new);
+    }
+
+    public void count(String name) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    public void updatePeak(String name, long value) {
+        peaks.computeIfAbsent(name, k -> new LongAccumulator(Math::max, 0)).accumulate(value);
+    }
+
+    public JsonObject toJson() {
+        var result = new JsonObject();
+
+        var stagesObject = new JsonObject();
+        new TreeMap<>(stages).forEach((name, stage) -> {
+            var stageObject = new JsonObject();
+            stageObject.addProperty("entries", stage.getEntries());
+            stageObject.addProperty("bytes", stage.getBytes());
+            stageObject.addProperty("nanos", stage.getNanos());
+            stagesObject.add(name, stageObject);
+        });
+        result.add("stages", stagesObject);
+
+        var countersObject = new JsonObject();
+        new TreeMap<>(counters).forEach((name, value) -> countersObject.addProperty(name, value.sum()));
+        result.add("counters", countersObject);
+
+        var peaksObject = new JsonObject();
+        new TreeMap<>(peaks).forEach((name, value) -> peaksObject.addProperty(name, value.get()));
+        result.add("peaks", peaksObject);
+
+        return result;
+    }
+
+    public void log(Logger logger, String title) {
+        stages.values().stream()
+                .sorted((a, b) -> a.name.compareTo(b.name))
+                .forEach(stage -> logger.lifecycle("{}: {}", title, stage));
+    }
+
+    public static final class Stage {
+        private final String name;
+        private final LongAdder entries = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        public long start() {
+            return System.nanoTime();
+        }
+
+        public void end(long startTime, long bytes) {
+            add(System.nanoTime() - startTime, bytes, 1);
+        }
+
+        public void add(long nanos, long bytes, long entries) {
+            this.nanos.add(nanos);
+            this.bytes.add(bytes);
+            this.entries.add(entries);
+        }
+
+        // Records the time spent in reads of the stream and the bytes read, without counting entries
+        public InputStream meter(InputStream input) {
+            return new FilterInputStream(input) {
+                @Override
+                public int read() throws IOException {
+                    long startTime = System.nanoTime();
+                    int b = in.read();
+                    add(System.nanoTime() - startTime, b < 0 ? 0 : 1, 0);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    long startTime = System.nanoTime();
+                    int n = in.read(b, off, len);
+                    add(System.nanoTime() - startTime, Math.max(n, 0), 0);
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    long startTime = System.nanoTime();
+                    long skipped = in.skip(n);
+                    add(System.nanoTime() - startTime, skipped, 0);
+                    return skipped;
+                }
+            };
+        }
+
+        // Records the time spent in writes to the stream and the bytes written, without counting entries
+        public OutputStream meter(OutputStream output) {
+            return new FilterOutputStream(output) {
+                @Override
+                public void write(int b) throws IOException {
+                    long startTime = System.nanoTime();
+                    out.write(b);
+                    add(System.nanoTime() - startTime, 1, 0);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    long startTime = System.nanoTime();
+                    out.write(b, off, len);
+                    add(System.nanoTime() - startTime, len, 0);
+                }
+            };
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getEntries() {
+            return entries.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        public double getMegabytesPerSecond() {
+            long nanos = getNanos();
+            return nanos == 0 ? 0.0 : (getBytes() / (1024.0 * 1024.0)) / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return "%s: %d entries, %.2f MiB in %.3f s (%.2f MiB/s)".formatted(
+                    name, getEntries(), getBytes() / (1024.0 * 1024.0), getNanos() / 1e9, getMegabytesPerSecond());
+        }
+    }
+}
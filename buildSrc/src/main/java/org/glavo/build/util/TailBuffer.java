@@ -0,0 +1,134 @@
+package org.glavo.build.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Keeps the last {@code capacity} bytes written to it, e.g. the central directory at the end of a zip file
+ * that is streamed from a tar archive.
+ * <p>
+ * {@link #openChannel()} exposes the content at its original positions, reading before the retained tail fails.
+ */
+public final class TailBuffer extends OutputStream {
+    private final byte[] buffer;
+    private long count = 0;
+
+    public TailBuffer(int capacity) {
+        this.buffer = new byte[Math.max(capacity, 1)];
+    }
+
+    @Override
+    public void write(int b) {
+        buffer[(int) (count++ % buffer.length)] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (len > buffer.length) {
+            // Only the end of the input is kept
+            count += len - buffer.length;
+            off += len - buffer.length;
+            len = buffer.length;
+        }
+
+        while (len > 0) {
+            int position = (int) (count % buffer.length);
+            int n = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, n);
+            off += n;
+            len -= n;
+            count += n;
+        }
+    }
+
+    public long size() {
+        return count;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    // Whether the whole content is retained
+    public boolean isComplete() {
+        return count <= buffer.length;
+    }
+
+    public SeekableByteChannel openChannel() {
+        return new TailChannel();
+    }
+
+    private final class TailChannel implements SeekableByteChannel {
+        private long position = 0;
+        private boolean open = true;
+
+        private void ensureOpen() throws ClosedChannelException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            if (position >= count) {
+                return -1;
+            }
+            if (position < count - buffer.length) {
+                throw new IOException("Position " + position + " is before the retained " + buffer.length + " bytes");
+            }
+
+            int start = (int) (position % buffer.length);
+            int n = (int) Math.min(Math.min(dst.remaining(), count - position), buffer.length - start);
+            dst.put(buffer, start, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position: " + newPosition);
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return count;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
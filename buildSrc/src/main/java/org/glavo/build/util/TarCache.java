@@ -0,0 +1,232 @@
+package org.glavo.build.util;
+
+import org.glavo.build.ArchiveCodec;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A cache of inflated tar archives, keyed by the SHA-256 of the compressed archive.
+ * Adding an archive trims the cache to {@code maxSize}, see {@link Utils#evictLeastRecentlyUsed}.
+ * <p>
+ * Archives are looked up by their path, size and modification time, which map to the content hash through
+ * a {@code <key>.key} file. An archive that is not cached is inflated while it is read by the transform,
+ * and its content is only hashed then.
+ */
+public final class TarCache {
+    private static final Logger LOGGER = Logging.getLogger(TarCache.class);
+
+    public static final long DEFAULT_MAX_SIZE = 16L * 1024 * 1024 * 1024;
+
+    // FileLock only excludes other processes
+    private static final Object LOCK = new Object();
+
+    private static final String SUFFIX = ".tar";
+    private static final String KEY_SUFFIX = ".key";
+
+    // Bytes read on close to reach the end of the archive, the partial tar is dropped if there are more
+    private static final int DRAIN_LIMIT = 1024 * 1024;
+
+    private final Path directory;
+    private final long maxSize;
+
+    public TarCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    private static String keyOf(Path archive) throws IOException {
+        Path path = archive.toAbsolutePath().normalize();
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String key = path + "\n" + attributes.size() + "\n" + attributes.lastModifiedTime().toMillis();
+        return HexFormat.of().formatHex(Utils.sha256().digest(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    private <T> T locked(LockedAction<T> action) throws IOException {
+        Files.createDirectories(directory);
+        synchronized (LOCK) {
+            try (var lockChannel = FileChannel.open(directory.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                return action.run();
+            }
+        }
+    }
+
+    // Opens the inflated tar if it is cached, or the archive itself if it is not compressed.
+    // It is opened under the lock, so another build can no longer evict it.
+    public @Nullable FileChannel getCached(Path archive) throws IOException {
+        if (ArchiveCodec.detect(archive) == ArchiveCodec.TAR) {
+            return FileChannel.open(archive);
+        }
+
+        Path keyFile = directory.resolve(keyOf(archive) + KEY_SUFFIX);
+        return locked(() -> {
+            if (!Files.isRegularFile(keyFile)) {
+                return null;
+            }
+
+            Path target = directory.resolve(Files.readString(keyFile).strip() + SUFFIX);
+            if (!Files.isRegularFile(target)) {
+                return null;
+            }
+
+            LOGGER.lifecycle("Using cached inflated {} ({})", archive.getFileName(), target.getFileName());
+            Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+            return FileChannel.open(target);
+        });
+    }
+
+    /**
+     * Inflates an archive that is not cached, the inflated tar is added to the cache once the stream reaches its end.
+     */
+    public InputStream fill(Path archive) throws IOException {
+        LOGGER.lifecycle("Inflating {} into {}", archive.getFileName(), directory);
+        Files.createDirectories(directory);
+        return new FillingInputStream(archive);
+    }
+
+    private final class FillingInputStream extends InputStream {
+        private final Path archive;
+        private final String key;
+        private final MessageDigest digest = Utils.sha256();
+        private final DigestInputStream compressedInput;
+        private final InputStream input;
+        private final Path temp;
+        private final OutputStream output;
+        private final byte[] singleByte = new byte[1];
+        private boolean done = false;
+
+        FillingInputStream(Path archive) throws IOException {
+            this.archive = archive;
+            this.key = keyOf(archive);
+            this.compressedInput = new DigestInputStream(Files.newInputStream(archive), digest);
+            try {
+                this.input = ArchiveCodec.detect(archive).decompress(compressedInput);
+                this.temp = Files.createTempFile(directory, key, SUFFIX + ".tmp");
+                // Not interruptible, the stream may be read by a read-ahead thread that is interrupted on close
+                this.output = new FileOutputStream(temp.toFile());
+            } catch (Throwable e) {
+                compressedInput.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(singleByte, 0, 1) < 0 ? -1 : singleByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = input.read(b, off, len);
+            if (!done) {
+                if (n > 0) {
+                    output.write(b, off, n);
+                } else if (n < 0) {
+                    commit();
+                }
+            }
+            return n;
+        }
+
+        private void commit() throws IOException {
+            done = true;
+            try {
+                output.close();
+                // Bytes after the end of the compressed stream are part of the archive hash as well
+                try (var buffer = IOBuffer.acquire()) {
+                    buffer.drain(compressedInput, Long.MAX_VALUE);
+                }
+                String hash = HexFormat.of().formatHex(digest.digest());
+
+                locked(() -> {
+                    Path target = directory.resolve(hash + SUFFIX);
+                    if (Files.isRegularFile(target)) {
+                        Files.delete(temp);
+                        Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+                    } else {
+                        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                    }
+
+                    Path keyFile = directory.resolve(key + KEY_SUFFIX);
+                    Path tempKeyFile = Files.createTempFile(directory, key, KEY_SUFFIX + ".tmp");
+                    Files.writeString(tempKeyFile, hash);
+                    Files.move(tempKeyFile, keyFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+                    LOGGER.lifecycle("Cached inflated {} ({})", archive.getFileName(), target.getFileName());
+                    evict(target);
+                    return null;
+                });
+            } catch (Throwable e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!done) {
+                    // Readers of the tar may stop before the padding at the end of the archive
+                    try (var buffer = IOBuffer.acquire()) {
+                        buffer.drain(this, DRAIN_LIMIT);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.info("Failed to finish inflating {}: {}", archive, e.getMessage());
+            } finally {
+                try {
+                    input.close();
+                } finally {
+                    if (!done) {
+                        done = true;
+                        output.close();
+                        Files.deleteIfExists(temp);
+                    }
+                }
+            }
+        }
+    }
+
+    private void evict(Path keep) throws IOException {
+        List<Path> archives;
+        List<Path> keyFiles;
+        try (Stream<Path> stream = Files.list(directory)) {
+            List<Path> files = stream.toList();
+            archives = files.stream().filter(file -> file.getFileName().toString().endsWith(SUFFIX) && Files.isRegularFile(file)).toList();
+            keyFiles = files.stream().filter(file -> file.getFileName().toString().endsWith(KEY_SUFFIX)).toList();
+        }
+
+        for (Path evicted : Utils.evictLeastRecentlyUsed(archives, maxSize, keep::equals)) {
+            LOGGER.lifecycle("Evicted {} from tar cache", evicted.getFileName());
+        }
+
+        // Keys of archives that were evicted
+        for (Path keyFile : keyFiles) {
+            Path target = directory.resolve(Files.readString(keyFile).strip() + SUFFIX);
+            if (!Files.isRegularFile(target)) {
+                Files.deleteIfExists(keyFile);
+            }
+        }
+    }
+}
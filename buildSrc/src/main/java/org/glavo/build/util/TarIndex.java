@@ -0,0 +1,279 @@
+package org.glavo.build.util;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A sidecar index of a {@code .tar.gz} written by {@link ParallelGZIPOutputStream} with independent blocks.
+ * <p>
+ * The {@code <archive>.index} file starts with {@code archive <compressed size> <gzip trailer>}, followed by one line per entry:
+ * the offset of the compressed block containing the start of its data, the offset of the data in the inflated block,
+ * the size, the mode (octal), the type ({@code f}ile, {@code d}irectory, symbolic {@code l}ink, {@code h}ard link
+ * or {@code o}ther), the name and, for links, the link target.
+ * Names and link targets are escaped, so that they contain no spaces or line breaks.
+ * Since the block does not depend on the previous blocks, an entry is read by inflating from that block.
+ */
+public final class TarIndex {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public record Entry(String name, long blockOffset, long offsetInBlock, long size, int mode, char type,
+                        @Nullable String linkName) {
+        public boolean isFile() {
+            return type == 'f';
+        }
+
+        public boolean isLink() {
+            return type == 'l' || type == 'h';
+        }
+    }
+
+    static String escape(String value) {
+        var builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '\\' -> builder.append("\\\\");
+                case ' ' -> builder.append("\\s");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                default -> builder.append(ch);
+            }
+        }
+        return builder.toString();
+    }
+
+    static String unescape(String value) throws IOException {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+
+        var builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch != '\\') {
+                builder.append(ch);
+                continue;
+            }
+            if (++i == value.length()) {
+                throw new IOException("Invalid escape at the end of " + value);
+            }
+            builder.append(switch (value.charAt(i)) {
+                case '\\' -> '\\';
+                case 's' -> ' ';
+                case 'n' -> '\n';
+                case 'r' -> '\r';
+                default -> throw new IOException("Invalid escape in " + value);
+            });
+        }
+        return builder.toString();
+    }
+
+    public static Path indexFile(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + ".index");
+    }
+
+    private final Path archive;
+    private final Map<String, Entry> entries;
+
+    private TarIndex(Path archive, Map<String, Entry> entries) {
+        this.archive = archive;
+        this.entries = entries;
+    }
+
+    public static TarIndex load(Path archive) throws IOException {
+        Path indexFile = indexFile(archive);
+        try (var reader = Files.newBufferedReader(indexFile)) {
+            // The trailer holds the CRC-32 of the content, so a rewritten archive of the same size is detected as well
+            String header = reader.readLine();
+            if (header == null || !header.equals("archive " + Utils.describeGzip(archive))) {
+                throw new IOException(indexFile + " does not describe " + archive);
+            }
+
+            var entries = new LinkedHashMap<String, Entry>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", -1);
+                if (parts.length < 6 || parts[4].length() != 1) {
+                    throw new IOException("Invalid line in " + indexFile + ": " + line);
+                }
+                char type = parts[4].charAt(0);
+                boolean isLink = type == 'l' || type == 'h';
+                if (parts.length != (isLink ? 7 : 6)) {
+                    throw new IOException("Invalid line in " + indexFile + ": " + line);
+                }
+                var entry = new Entry(unescape(parts[5]), Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        Long.parseLong(parts[2]), Integer.parseInt(parts[3], 8), type,
+                        isLink ? unescape(parts[6]) : null);
+                entries.put(entry.name(), entry);
+            }
+            return new TarIndex(archive, entries);
+        }
+    }
+
+    public List<Entry> getEntries() {
+        return List.copyOf(entries.values());
+    }
+
+    public @Nullable Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    // The directory itself and all entries below it
+    public List<Entry> getSubtree(String directory) {
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        return entries.values().stream()
+                .filter(entry -> entry.name().startsWith(prefix) || entry.name().equals(directory))
+                .toList();
+    }
+
+    public InputStream openEntry(Entry entry) throws IOException {
+        if (!entry.isFile()) {
+            throw new IOException(entry.name() + " is not a regular file");
+        }
+
+        FileChannel channel = FileChannel.open(archive);
+        Inflater inflater = new Inflater(true);
+        try {
+            channel.position(entry.blockOffset());
+            var input = new InflaterInputStream(Channels.newInputStream(channel), inflater, BUFFER_SIZE);
+            input.skipNBytes(entry.offsetInBlock());
+            return new FilterInputStream(input) {
+                private long remaining = entry.size();
+
+                @Override
+                public int read() throws IOException {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    int b = in.read();
+                    if (b >= 0) {
+                        remaining--;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    int n = in.read(b, off, (int) Math.min(len, remaining));
+                    if (n > 0) {
+                        remaining -= n;
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        in.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        } catch (Throwable e) {
+            inflater.end();
+            channel.close();
+            throw e;
+        }
+    }
+
+    public byte[] readEntry(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new IOException(name + " not found in " + archive);
+        }
+        try (var input = openEntry(entry)) {
+            return input.readAllBytes();
+        }
+    }
+
+    /**
+     * Collects the entries and blocks while the archive is written, the index is written once the archive is complete.
+     */
+    public static final class Writer implements ParallelGZIPOutputStream.BlockListener {
+        private record PendingEntry(TarArchiveEntry entry, long dataOffset) {
+        }
+
+        private record Block(long uncompressedOffset, long compressedOffset) {
+        }
+
+        private final List<PendingEntry> entries = new ArrayList<>();
+        private final List<Block> blocks = new ArrayList<>();
+
+        // dataOffset is the offset of the entry data in the uncompressed tar stream
+        public void addEntry(TarArchiveEntry entry, long dataOffset) {
+            entries.add(new PendingEntry(entry, dataOffset));
+        }
+
+        @Override
+        public void onBlockWritten(long uncompressedOffset, long compressedOffset, int compressedLength) {
+            blocks.add(new Block(uncompressedOffset, compressedOffset));
+        }
+
+        private static char typeOf(TarArchiveEntry entry) {
+            if (entry.isDirectory()) {
+                return 'd';
+            } else if (entry.isSymbolicLink()) {
+                return 'l';
+            } else if (entry.isLink()) {
+                return 'h';
+            } else if (entry.isFile()) {
+                return 'f';
+            } else {
+                return 'o';
+            }
+        }
+
+        public void write(Path archive) throws IOException {
+            if (blocks.isEmpty()) {
+                throw new IOException("No blocks were written to " + archive);
+            }
+
+            Path indexFile = indexFile(archive);
+            Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+                writer.write("archive " + Utils.describeGzip(archive));
+                writer.write('\n');
+
+                // Entries and blocks are both in output order
+                int blockIndex = 0;
+                for (PendingEntry pending : entries) {
+                    while (blockIndex + 1 < blocks.size() && blocks.get(blockIndex + 1).uncompressedOffset <= pending.dataOffset) {
+                        blockIndex++;
+                    }
+                    Block block = blocks.get(blockIndex);
+                    TarArchiveEntry entry = pending.entry;
+                    char type = typeOf(entry);
+                    writer.write("%d %d %d %o %c %s".formatted(
+                            block.compressedOffset, pending.dataOffset - block.uncompressedOffset,
+                            entry.getSize(), entry.getMode() & 07777, type, escape(entry.getName())));
+                    if (type == 'l' || type == 'h') {
+                        writer.write(' ');
+                        writer.write(escape(entry.getLinkName()));
+                    }
+                    writer.write('\n');
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -6,13 +6,23 @@ import org.gradle.api.GradleException;
 import org.gradle.api.file.RegularFile;
 import org.gradle.api.file.RegularFileProperty;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 public final class Utils {
     public static void ensureLinux() {
@@ -60,6 +70,94 @@ public final class Utils {
         }
     }
 
+    /**
+     * Deletes the least recently used cache entries, files or directories, until their total size is at most {@code maxSize}.
+     * An entry is used when its modification time is touched. Kept entries count towards the size but are not deleted.
+     *
+     * @return the deleted entries
+     */
+    public static List<Path> evictLeastRecentlyUsed(List<Path> entries, long maxSize, Predicate<Path> keep) throws IOException {
+        record Entry(Path path, long size, FileTime lastUsed) {
+        }
+
+        List<Entry> list = new ArrayList<>();
+        for (Path path : entries) {
+            try {
+                long size;
+                if (Files.isDirectory(path)) {
+                    try (var files = Files.walk(path)) {
+                        size = files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+                    }
+                } else {
+                    size = Files.size(path);
+                }
+                list.add(new Entry(path, size, Files.getLastModifiedTime(path)));
+            } catch (NoSuchFileException ignored) {
+                // Evicted by another build
+            }
+        }
+
+        long totalSize = list.stream().mapToLong(Entry::size).sum();
+        list.sort(Comparator.comparing(Entry::lastUsed));
+
+        List<Path> evicted = new ArrayList<>();
+        for (Entry entry : list) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            if (keep.test(entry.path)) {
+                continue;
+            }
+
+            if (Files.isDirectory(entry.path)) {
+                deleteDirectory(entry.path);
+            } else {
+                Files.deleteIfExists(entry.path);
+            }
+            totalSize -= entry.size;
+            evicted.add(entry.path);
+        }
+        return evicted;
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // The hex SHA-256 of the content of the file
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (var channel = FileChannel.open(file);
+             var buffer = IOBuffer.acquire()) {
+            buffer.update(digest, channel);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    // The size of a gzip file and its trailer (CRC-32 and size of the content) in hex
+    public static String describeGzip(Path file) throws IOException {
+        try (var channel = FileChannel.open(file)) {
+            long size = channel.size();
+            if (size < GZIP_TRAILER_SIZE) {
+                return String.valueOf(size);
+            }
+
+            var trailer = ByteBuffer.allocate(GZIP_TRAILER_SIZE);
+            while (trailer.hasRemaining()) {
+                if (channel.read(trailer, size - GZIP_TRAILER_SIZE + trailer.position()) < 0) {
+                    throw new EOFException("Unexpected end of " + file);
+                }
+            }
+            return size + " " + HexFormat.of().formatHex(trailer.array());
+        }
+    }
+
     public static TarArchiveEntry copyTarEntry(final TarArchiveEntry entry, long newSize) {
         return copyTarEntry(entry, entry.getName(), newSize);
     }
@@ -73,4 +171,30 @@ public final class Utils {
         newEntry.setLastModifiedTime(entry.getLastModifiedTime());
         return newEntry;
     }
+
+    // Makes the header independent of the time and the user of the build, mtimes are clamped to sourceDateEpoch
+    public static void normalizeTarEntry(TarArchiveEntry entry, long sourceDateEpoch) {
+        long mtime = Math.min(entry.getLastModifiedTime().to(TimeUnit.SECONDS), sourceDateEpoch);
+        entry.setLastModifiedTime(FileTime.from(mtime, TimeUnit.SECONDS));
+        entry.setLastAccessTime(null);
+        entry.setCreationTime(null);
+        entry.setStatusChangeTime(null);
+        entry.setUserId(0);
+        entry.setGroupId(0);
+        entry.setUserName("root");
+        entry.setGroupName("root");
+    }
+
+    // The permission bits of a tar mode
+    public static Set<PosixFilePermission> toPosixFilePermissions(int mode) {
+        PosixFilePermission[] values = PosixFilePermission.values();
+        var result = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < values.length; i++) {
+            // OWNER_READ is the highest of the nine bits
+            if ((mode & (1 << (values.length - 1 - i))) != 0) {
+                result.add(values[i]);
+            }
+        }
+        return result;
+    }
 }
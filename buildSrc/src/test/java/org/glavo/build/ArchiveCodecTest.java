@@ -0,0 +1,67 @@
+package org.glavo.build;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchiveCodecTest {
+    private static final byte[] CONTENT = "Hello, World!".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    // The extension is deliberately wrong, the codec is detected by the content
+    private Path writeArchive(ArchiveCodec codec) throws IOException {
+        Path file = tempDir.resolve(codec.name() + ".archive");
+        try (var tar = new TarArchiveOutputStream(codec.compress(Files.newOutputStream(file), 1))) {
+            var entry = new TarArchiveEntry("hello.txt");
+            entry.setSize(CONTENT.length);
+            tar.putArchiveEntry(entry);
+            tar.write(CONTENT);
+            tar.closeArchiveEntry();
+        }
+        return file;
+    }
+
+    @Test
+    public void detect() throws IOException {
+        for (ArchiveCodec codec : ArchiveCodec.values()) {
+            assertEquals(codec, ArchiveCodec.detect(writeArchive(codec)));
+        }
+    }
+
+    @Test
+    public void open() throws IOException {
+        for (ArchiveCodec codec : ArchiveCodec.values()) {
+            try (var tar = new TarArchiveInputStream(ArchiveCodec.open(writeArchive(codec)))) {
+                TarArchiveEntry entry = tar.getNextEntry();
+                assertNotNull(entry);
+                assertEquals("hello.txt", entry.getName());
+                assertArrayEquals(CONTENT, tar.readAllBytes());
+                assertNull(tar.getNextEntry());
+            }
+        }
+    }
+
+    @Test
+    public void unknownFormat() throws IOException {
+        Path file = Files.write(tempDir.resolve("unknown.tar.gz"), new byte[1024]);
+        assertThrows(IOException.class, () -> ArchiveCodec.detect(file));
+    }
+
+    @Test
+    public void shortFile() throws IOException {
+        assertEquals(ArchiveCodec.GZIP, ArchiveCodec.detect(Files.write(tempDir.resolve("short"), new byte[]{0x1f, (byte) 0x8b})));
+        Path empty = Files.write(tempDir.resolve("empty"), new byte[0]);
+        assertThrows(IOException.class, () -> ArchiveCodec.detect(empty));
+    }
+}
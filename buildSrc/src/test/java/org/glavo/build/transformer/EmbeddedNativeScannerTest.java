@@ -0,0 +1,103 @@
+package org.glavo.build.transformer;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.glavo.build.Arch;
+import org.glavo.build.util.StageMetrics;
+import org.glavo.build.util.TailBuffer;
+import org.gradle.api.GradleException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddedNativeScannerTest {
+    private static final List<String> ENTRIES = List.of(
+            "META-INF/MANIFEST.MF",
+            "linux-x86_64/libfoo.so",
+            "linux-aarch64/libfoo.so",
+            "linux-x86-64/libbar.so",
+            "native/amd64/libbaz.so.1",
+            "native/riscv64/libbaz.so.1",
+            "linux-x86_64/notes.txt"
+    );
+
+    // A jar whose entries are followed by the central directory, with a large stored entry in front
+    private static TailBuffer jar(int tailSize, int paddingSize) throws IOException {
+        var tail = new TailBuffer(tailSize);
+        try (var zip = new ZipArchiveOutputStream(tail)) {
+            if (paddingSize > 0) {
+                byte[] padding = new byte[paddingSize];
+                new Random(0).nextBytes(padding);
+                var entry = new ZipArchiveEntry("padding.bin");
+                entry.setMethod(ZipArchiveEntry.STORED);
+                entry.setSize(padding.length);
+                var crc = new CRC32();
+                crc.update(padding);
+                entry.setCrc(crc.getValue());
+                zip.putArchiveEntry(entry);
+                zip.write(padding);
+                zip.closeArchiveEntry();
+            }
+            for (String name : ENTRIES) {
+                zip.putArchiveEntry(new ZipArchiveEntry(name));
+                zip.write(name.getBytes());
+                zip.closeArchiveEntry();
+            }
+        }
+        return tail;
+    }
+
+    private static List<String> scan(Arch baseArch, Arch targetArch, TailBuffer jar) throws Exception {
+        try (var scanner = new EmbeddedNativeScanner(baseArch, targetArch, new StageMetrics())) {
+            scanner.submit("lib/app.jar", jar);
+            return scanner.finish();
+        }
+    }
+
+    @Test
+    public void scan() throws Exception {
+        TailBuffer jar = jar(EmbeddedNativeScanner.MAX_TAIL_SIZE, 0);
+        assertTrue(jar.isComplete());
+
+        assertEquals(List.of(
+                "lib/app.jar!/linux-x86-64/libbar.so ([x86_64])",
+                "lib/app.jar!/linux-x86_64/libfoo.so ([aarch64, x86_64])"
+        ), scan(Arch.X86_64, Arch.RISCV64, jar));
+
+        assertEquals(List.of(
+                "lib/app.jar!/linux-x86-64/libbar.so ([x86_64])",
+                "lib/app.jar!/native/amd64/libbaz.so.1 ([riscv64, x86_64])"
+        ), scan(Arch.X86_64, Arch.AARCH64, jar));
+    }
+
+    @Test
+    public void centralDirectoryInTail() throws Exception {
+        // Only the end of the jar is retained, but it holds the whole central directory
+        TailBuffer jar = jar(16 * 1024, 100_000);
+        assertFalse(jar.isComplete());
+        assertEquals(2, scan(Arch.X86_64, Arch.RISCV64, jar).size());
+    }
+
+    @Test
+    public void centralDirectoryBeyondTail() throws Exception {
+        // The central directory does not fit into the retained bytes, the jar is skipped
+        TailBuffer jar = jar(256, 100_000);
+        assertFalse(jar.isComplete());
+        assertEquals(List.of(), scan(Arch.X86_64, Arch.RISCV64, jar));
+    }
+
+    @Test
+    public void notAJar() throws Exception {
+        var jar = new TailBuffer(EmbeddedNativeScanner.MAX_TAIL_SIZE);
+        jar.write(new byte[1000]);
+        try (var scanner = new EmbeddedNativeScanner(Arch.X86_64, Arch.RISCV64, new StageMetrics())) {
+            scanner.submit("lib/broken.jar", jar);
+            assertThrows(GradleException.class, scanner::finish);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.glavo.build.transformer;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.gradle.api.GradleException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZipPatcherTest {
+    private static final long TIME = 1700000000000L;
+    private static final List<String> ORDER = List.of("META-INF/MANIFEST.MF", "lib/", "lib/native.so", "lib/stored.bin", "com/example/Main.class");
+
+    @TempDir
+    Path tempDir;
+
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static Map<String, byte[]> entries() {
+        return Map.of(
+                "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8),
+                "lib/native.so", content(100_000),
+                "lib/stored.bin", content(1000),
+                "com/example/Main.class", content(5000)
+        );
+    }
+
+    private Path writeZip(String name, Map<String, byte[]> entries) throws IOException {
+        Path file = tempDir.resolve(name);
+        try (var out = new ZipArchiveOutputStream(file)) {
+            for (String entryName : ORDER) {
+                var entry = new ZipArchiveEntry(entryName);
+                entry.setTime(TIME);
+                if (entryName.equals("lib/stored.bin")) {
+                    entry.setMethod(ZipArchiveEntry.STORED);
+                }
+                out.putArchiveEntry(entry);
+                if (!entry.isDirectory()) {
+                    out.write(entries.get(entryName));
+                }
+                out.closeArchiveEntry();
+            }
+        }
+        return file;
+    }
+
+    private record Entry(String name, int method, long time, long crc, byte[] content) {
+    }
+
+    private static List<Entry> readEntries(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (var zip = ZipFile.builder().setPath(file).get()) {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntriesInPhysicalOrder())) {
+                try (var input = zip.getInputStream(entry)) {
+                    entries.add(new Entry(entry.getName(), entry.getMethod(), entry.getTime(), entry.getCrc(), input.readAllBytes()));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void assertSameEntries(List<Entry> expected, List<Entry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Entry e = expected.get(i);
+            Entry a = actual.get(i);
+            assertEquals(e.name(), a.name());
+            assertEquals(e.time(), a.time(), e.name());
+            assertEquals(e.crc(), a.crc(), e.name());
+            assertArrayEquals(e.content(), a.content());
+        }
+    }
+
+    private static void patch(Path input, Path output, Map<String, byte[]> replacements) throws IOException {
+        try (var channel = Files.newByteChannel(input);
+             var out = Files.newOutputStream(output)) {
+            ZipPatcher.patch(channel, out, input.getFileName().toString(), replacements);
+        }
+    }
+
+    @Test
+    public void patch() throws IOException {
+        byte[] replacement = content(20_000);
+        Path input = writeZip("input.jar", entries());
+        Path patched = tempDir.resolve("patched.jar");
+        patch(input, patched, Map.of("lib/native.so", replacement));
+
+        // The same as rewriting the whole zip with the new entry
+        var entries = new HashMap<>(entries());
+        entries.put("lib/native.so", replacement);
+        Path rewritten = writeZip("rewritten.jar", entries);
+
+        List<Entry> expected = readEntries(rewritten);
+        List<Entry> actual = readEntries(patched);
+        assertSameEntries(expected, actual);
+
+        // Untouched entries keep their compression method
+        assertEquals(ZipArchiveEntry.STORED, actual.get(ORDER.indexOf("lib/stored.bin")).method());
+        assertEquals(ZipArchiveEntry.DEFLATED, actual.get(ORDER.indexOf("lib/native.so")).method());
+    }
+
+    @Test
+    public void patchNothing() throws IOException {
+        Path input = writeZip("input.jar", entries());
+        Path patched = tempDir.resolve("patched.jar");
+        patch(input, patched, Map.of());
+        assertSameEntries(readEntries(input), readEntries(patched));
+    }
+
+    @Test
+    public void missingEntry() throws IOException {
+        Path input = writeZip("input.jar", entries());
+        assertThrows(GradleException.class, () -> patch(input, tempDir.resolve("patched.jar"), Map.of("lib/missing.so", new byte[0])));
+    }
+}
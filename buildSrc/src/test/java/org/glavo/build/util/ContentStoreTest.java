@@ -0,0 +1,88 @@
+package org.glavo.build.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentStoreTest {
+    @TempDir
+    Path tempDir;
+
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void put() throws IOException {
+        var store = new ContentStore(tempDir.resolve("store"), ContentStore.DEFAULT_MAX_SIZE);
+        byte[] content = content(1000);
+
+        Path blob = store.put(content);
+        assertArrayEquals(content, Files.readAllBytes(blob));
+        assertEquals(PosixFilePermissions.fromString("r--r--r--"), Files.getPosixFilePermissions(blob));
+        assertEquals(blob, store.put(content.clone()));
+        assertEquals(1, store.getNewBlobs());
+        assertEquals(1, store.getReusedBlobs());
+    }
+
+    @Test
+    public void supportsReflinks() throws IOException {
+        var store = new ContentStore(tempDir.resolve("store"), ContentStore.DEFAULT_MAX_SIZE);
+        Path targetDir = tempDir.resolve("ide");
+
+        // The answer depends on the file system, but the probe leaves nothing behind
+        store.supportsReflinks(targetDir);
+        try (var files = Files.list(targetDir)) {
+            assertEquals(0, files.count());
+        }
+        try (var files = Files.walk(tempDir.resolve("store"))) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    public void link() throws IOException {
+        var store = new ContentStore(tempDir.resolve("store"), ContentStore.DEFAULT_MAX_SIZE);
+        byte[] content = content(1000);
+        Path blob = store.put(content);
+
+        Path target = Files.createDirectories(tempDir.resolve("ide")).resolve("file");
+        store.link(blob, target);
+        assertArrayEquals(content, Files.readAllBytes(target));
+
+        // The target can be changed without touching the blob
+        assertEquals(PosixFilePermissions.fromString("rw-r--r--"), Files.getPosixFilePermissions(target));
+        Files.write(target, new byte[]{1, 2, 3});
+        assertArrayEquals(content, Files.readAllBytes(blob));
+    }
+
+    @Test
+    public void evict() throws IOException {
+        // Room for two blobs
+        var store = new ContentStore(tempDir.resolve("store"), 2500);
+        Path a = store.put(content(1000));
+        Files.setLastModifiedTime(a, FileTime.fromMillis(1000));
+        Path b = store.put(content(1001));
+        Files.setLastModifiedTime(b, FileTime.fromMillis(3000));
+        Path c = store.put(content(1002));
+        Files.setLastModifiedTime(c, FileTime.fromMillis(2000));
+
+        // Reusing a blob marks it as recently used
+        store.put(content(1000));
+
+        store.evict();
+        assertTrue(Files.exists(a));
+        assertTrue(Files.exists(b));
+        assertFalse(Files.exists(c));
+    }
+}
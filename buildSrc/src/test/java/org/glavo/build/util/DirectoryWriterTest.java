@@ -0,0 +1,98 @@
+package org.glavo.build.util;
+
+import org.gradle.api.GradleException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirectoryWriterTest {
+    @TempDir
+    Path tempDir;
+
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void writeFile(DirectoryWriter writer, String name, byte[] content, int mode) throws IOException {
+        try (var output = writer.createFile(name, content.length, mode)) {
+            for (int offset = 0; offset < content.length; offset += 64 * 1024) {
+                output.write(content, offset, Math.min(64 * 1024, content.length - offset));
+            }
+        }
+    }
+
+    @Test
+    public void writeTree() throws IOException {
+        Path root = tempDir.resolve("ide");
+        Files.createDirectories(root);
+        Files.writeString(root.resolve("stale.txt"), "stale");
+
+        byte[] small = content(1000);
+        byte[] large = content(20 * 1024 * 1024);
+        try (var writer = new DirectoryWriter(root)) {
+            writer.createDirectory("bin", 0755);
+            writeFile(writer, "bin/idea.sh", small, 0755);
+            // Parent directories are created on demand
+            writeFile(writer, "lib/app/app.jar", large, 0644);
+            writeFile(writer, "empty", new byte[0], 0600);
+            writer.createSymbolicLink("bin/link.sh", "idea.sh");
+            writer.finish();
+        }
+
+        // The target directory is cleared first
+        assertFalse(Files.exists(root.resolve("stale.txt")));
+
+        assertArrayEquals(small, Files.readAllBytes(root.resolve("bin/idea.sh")));
+        assertArrayEquals(large, Files.readAllBytes(root.resolve("lib/app/app.jar")));
+        assertArrayEquals(new byte[0], Files.readAllBytes(root.resolve("empty")));
+        assertEquals(PosixFilePermissions.fromString("rwxr-xr-x"), Files.getPosixFilePermissions(root.resolve("bin/idea.sh")));
+        assertEquals(PosixFilePermissions.fromString("rw-r--r--"), Files.getPosixFilePermissions(root.resolve("lib/app/app.jar")));
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(root.resolve("empty")));
+        assertEquals(Path.of("idea.sh"), Files.readSymbolicLink(root.resolve("bin/link.sh")));
+    }
+
+    @Test
+    public void directoryModes() throws IOException {
+        Path root = tempDir.resolve("ide");
+        try (var writer = new DirectoryWriter(root)) {
+            // A read-only directory is still filled, its mode is applied at the end
+            writer.createDirectory("readonly", 0555);
+            writer.createDirectory("readonly/nested", 0700);
+            writeFile(writer, "readonly/nested/file", content(10), 0444);
+            writer.finish();
+        }
+
+        assertArrayEquals(content(10), Files.readAllBytes(root.resolve("readonly/nested/file")));
+        assertEquals(PosixFilePermissions.fromString("r-xr-xr-x"), Files.getPosixFilePermissions(root.resolve("readonly")));
+        assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(root.resolve("readonly/nested")));
+        assertEquals(PosixFilePermissions.fromString("r--r--r--"), Files.getPosixFilePermissions(root.resolve("readonly/nested/file")));
+    }
+
+    @Test
+    public void escapingName() throws IOException {
+        try (var writer = new DirectoryWriter(tempDir.resolve("ide"))) {
+            assertThrows(IOException.class, () -> writer.createFile("../escape", 1, 0644));
+            assertThrows(IOException.class, () -> writer.createSymbolicLink("bin/../../escape", "target"));
+        }
+        assertFalse(Files.exists(tempDir.resolve("escape")));
+    }
+
+    @Test
+    public void failedWrite() throws IOException {
+        try (var writer = new DirectoryWriter(tempDir.resolve("ide"))) {
+            writeFile(writer, "file", content(10), 0644);
+            // The same file again fails on a writer thread, which is reported by finish()
+            writeFile(writer, "file", content(10), 0644);
+            assertThrows(GradleException.class, writer::finish);
+        }
+    }
+}
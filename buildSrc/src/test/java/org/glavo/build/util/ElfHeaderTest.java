@@ -0,0 +1,90 @@
+package org.glavo.build.util;
+
+import org.glavo.build.Arch;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ElfHeaderTest {
+    private static byte[] header(boolean is64Bit, boolean littleEndian, int machine) {
+        byte[] bytes = new byte[64];
+        bytes[0] = 0x7f;
+        bytes[1] = 'E';
+        bytes[2] = 'L';
+        bytes[3] = 'F';
+        bytes[4] = (byte) (is64Bit ? 2 : 1);
+        bytes[5] = (byte) (littleEndian ? 1 : 2);
+        bytes[6] = 1;
+        bytes[16] = 3; // ET_DYN
+        if (littleEndian) {
+            bytes[18] = (byte) machine;
+            bytes[19] = (byte) (machine >> 8);
+        } else {
+            bytes[18] = (byte) (machine >> 8);
+            bytes[19] = (byte) machine;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void parse() {
+        for (Arch arch : Arch.values()) {
+            ElfHeader header = ElfHeader.parse(header(true, true, arch.getElfMachine()), 0, ElfHeader.PREFIX_SIZE);
+            assertNotNull(header);
+            assertTrue(header.is64Bit());
+            assertTrue(header.littleEndian());
+            assertEquals(arch.getElfMachine(), header.machine());
+            assertSame(arch, header.arch());
+            assertEquals(arch.normalize(), header.describe());
+        }
+    }
+
+    @Test
+    public void bigEndian() {
+        // LoongArch is the only machine above 255, so both bytes are checked
+        ElfHeader header = ElfHeader.parse(header(false, false, 258), 0, 64);
+        assertNotNull(header);
+        assertFalse(header.is64Bit());
+        assertFalse(header.littleEndian());
+        assertSame(Arch.LOONGARCH64, header.arch());
+    }
+
+    @Test
+    public void offset() {
+        byte[] bytes = new byte[100];
+        System.arraycopy(header(true, true, 183), 0, bytes, 10, 64);
+        ElfHeader header = ElfHeader.parse(bytes, 10, 64);
+        assertNotNull(header);
+        assertSame(Arch.AARCH64, header.arch());
+    }
+
+    @Test
+    public void unknownMachine() {
+        ElfHeader header = ElfHeader.parse(header(true, true, 3), 0, 64);
+        assertNotNull(header);
+        assertNull(header.arch());
+        assertEquals("machine 3", header.describe());
+    }
+
+    @Test
+    public void notElf() {
+        assertNull(ElfHeader.parse(new byte[64], 0, 64));
+        assertNull(ElfHeader.parse("#!/bin/sh\n".getBytes(), 0, 10));
+        // Too short for e_machine
+        assertNull(ElfHeader.parse(header(true, true, 62), 0, ElfHeader.PREFIX_SIZE - 1));
+        assertTrue(ElfHeader.hasMagic(header(true, true, 62), 0, 4));
+        assertFalse(ElfHeader.hasMagic(header(true, true, 62), 0, 3));
+    }
+
+    @Test
+    public void elfMachines() {
+        assertEquals(62, Arch.X86_64.getElfMachine());
+        assertEquals(183, Arch.AARCH64.getElfMachine());
+        assertEquals(243, Arch.RISCV64.getElfMachine());
+        assertEquals(258, Arch.LOONGARCH64.getElfMachine());
+        for (Arch arch : Arch.values()) {
+            assertSame(arch, Arch.ofElfMachine(arch.getElfMachine()));
+        }
+        assertNull(Arch.ofElfMachine(0));
+    }
+}
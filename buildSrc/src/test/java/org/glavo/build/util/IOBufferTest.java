@@ -0,0 +1,67 @@
+package org.glavo.build.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IOBufferTest {
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void acquireReusesClosedBuffer() {
+        IOBuffer first = IOBuffer.acquire();
+        first.close();
+        // Closing twice does not hand the buffer out twice
+        first.close();
+
+        IOBuffer second = IOBuffer.acquire();
+        IOBuffer third = IOBuffer.acquire();
+        assertSame(first, second);
+        assertNotSame(second, third);
+        third.close();
+        second.close();
+    }
+
+    @Test
+    public void ownedBufferIsNotPooled() {
+        var owned = new IOBuffer();
+        owned.close();
+        try (var pooled = IOBuffer.acquire()) {
+            assertNotSame(owned, pooled);
+        }
+    }
+
+    @Test
+    public void copyAfterReuse() throws IOException {
+        byte[] content = content(3_000_000);
+        for (int i = 0; i < 2; i++) {
+            try (var buffer = IOBuffer.acquire()) {
+                var output = new ByteArrayOutputStream();
+                buffer.copy(new ByteArrayInputStream(content), output, content.length);
+                assertArrayEquals(content, output.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void drain() throws IOException {
+        try (var buffer = IOBuffer.acquire()) {
+            assertEquals(100_000, buffer.drain(new ByteArrayInputStream(content(100_000)), Long.MAX_VALUE));
+
+            // Stops after the first read beyond the limit
+            var input = new ByteArrayInputStream(content(1_000_000));
+            long drained = buffer.drain(input, 0);
+            assertTrue(drained > 0);
+            assertEquals(1_000_000 - drained, input.available());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.glavo.build.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalBlockStoreTest {
+    private static final int BLOCK_SIZE = 32 * 1024;
+    private static final int BLOCKS = 8;
+
+    @TempDir
+    Path tempDir;
+
+    private static byte[] content(int seed) {
+        byte[] bytes = new byte[BLOCKS * BLOCK_SIZE];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] gunzip(Path file) throws IOException {
+        try (var input = new GZIPInputStream(Files.newInputStream(file))) {
+            return input.readAllBytes();
+        }
+    }
+
+    // Returns the number of blocks that were not found in the previous output
+    private static int compress(Path output, byte[] content, boolean commit) throws IOException {
+        var compressed = new AtomicInteger();
+        try (var store = new IncrementalBlockStore(output)) {
+            try (var gzip = new ParallelGZIPOutputStream(Files.newOutputStream(output), 4, 6, BLOCK_SIZE)) {
+                gzip.setBlockStore(new ParallelGZIPOutputStream.BlockStore() {
+                    @Override
+                    public byte[] lookup(byte[] key) throws IOException {
+                        byte[] block = store.lookup(key);
+                        if (block == null) {
+                            compressed.incrementAndGet();
+                        }
+                        return block;
+                    }
+
+                    @Override
+                    public void onBlockWritten(byte[] key, long compressedOffset, int compressedLength) throws IOException {
+                        store.onBlockWritten(key, compressedOffset, compressedLength);
+                    }
+                });
+                gzip.write(content);
+            }
+            if (commit) {
+                store.commit();
+            }
+        }
+        return compressed.get();
+    }
+
+    @Test
+    public void reuseUnchangedBlocks() throws IOException {
+        Path output = tempDir.resolve("ide.tar.gz");
+        byte[] content = content(0);
+        int blocks = compress(output, content, true);
+        assertTrue(blocks >= BLOCKS);
+        assertArrayEquals(content, gunzip(output));
+        assertTrue(Files.isRegularFile(tempDir.resolve("ide.tar.gz.blocks")));
+
+        // Only the changed block is compressed again
+        content[3 * BLOCK_SIZE + 100] ^= 1;
+        assertEquals(1, compress(output, content, true));
+        assertArrayEquals(content, gunzip(output));
+        assertFalse(Files.exists(tempDir.resolve("ide.tar.gz.prev")));
+        assertFalse(Files.exists(tempDir.resolve("ide.tar.gz.blocks.tmp")));
+    }
+
+    @Test
+    public void outOfDateManifest() throws IOException {
+        Path output = tempDir.resolve("ide.tar.gz");
+        byte[] content = content(0);
+        int blocks = compress(output, content, true);
+
+        // The output was replaced by something the manifest does not describe
+        try (var gzip = new ParallelGZIPOutputStream(Files.newOutputStream(output), 1)) {
+            gzip.write(content(1));
+        }
+        assertEquals(blocks, compress(output, content, true));
+        assertArrayEquals(content, gunzip(output));
+    }
+
+    @Test
+    public void failedRunRestoresPreviousOutput() throws IOException {
+        Path output = tempDir.resolve("ide.tar.gz");
+        byte[] content = content(0);
+        compress(output, content, true);
+        byte[] previous = Files.readAllBytes(output);
+        byte[] manifest = Files.readAllBytes(tempDir.resolve("ide.tar.gz.blocks"));
+
+        // The run fails before it is committed
+        compress(output, content(1), false);
+        assertArrayEquals(previous, Files.readAllBytes(output));
+        assertArrayEquals(manifest, Files.readAllBytes(tempDir.resolve("ide.tar.gz.blocks")));
+        assertFalse(Files.exists(tempDir.resolve("ide.tar.gz.prev")));
+
+        // The manifest still describes the restored output
+        assertEquals(0, compress(output, content, true));
+        assertArrayEquals(content, gunzip(output));
+    }
+
+    @Test
+    public void interruptedRunRestoresPreviousOutput() throws IOException {
+        Path output = tempDir.resolve("ide.tar.gz");
+        byte[] content = content(0);
+        compress(output, content, true);
+        byte[] previous = Files.readAllBytes(output);
+
+        // A run that was killed leaves the previous output aside and a partial output behind
+        Files.move(output, tempDir.resolve("ide.tar.gz.prev"));
+        Files.write(output, new byte[]{0x1f, (byte) 0x8b, 8});
+
+        new IncrementalBlockStore(output).close();
+        assertArrayEquals(previous, Files.readAllBytes(output));
+        assertEquals(0, compress(output, content, true));
+    }
+}
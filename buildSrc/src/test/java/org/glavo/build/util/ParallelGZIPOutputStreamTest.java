@@ -0,0 +1,127 @@
+package org.glavo.build.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelGZIPOutputStreamTest {
+    private static final int BLOCK_SIZE = 32 * 1024;
+
+    // Half random bytes, half repeated text, so that both stored and compressed blocks are written
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(0).nextBytes(bytes);
+        byte[] text = "The quick brown fox jumps over the lazy dog. ".getBytes();
+        for (int i = size / 2; i < size; i++) {
+            bytes[i] = text[i % text.length];
+        }
+        return bytes;
+    }
+
+    private static byte[] gzip(byte[] content, int threads, ParallelGZIPOutputStream.BlockListener listener) throws IOException {
+        var output = new ByteArrayOutputStream();
+        try (var gzip = new ParallelGZIPOutputStream(output, threads, 6, BLOCK_SIZE)) {
+            if (listener != null) {
+                gzip.setIndependentBlocks(true);
+                gzip.setBlockListener(listener);
+            }
+            // Uneven writes, so that blocks are filled across several calls
+            for (int offset = 0; offset < content.length; offset += 10000) {
+                gzip.write(content, offset, Math.min(10000, content.length - offset));
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (var input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return input.readAllBytes();
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] content = content(1024 * 1024 + 123);
+        assertArrayEquals(content, gunzip(gzip(content, 4, null)));
+    }
+
+    @Test
+    public void roundTripSingleThread() throws IOException {
+        byte[] content = content(3 * BLOCK_SIZE);
+        assertArrayEquals(content, gunzip(gzip(content, 1, null)));
+    }
+
+    @Test
+    public void empty() throws IOException {
+        assertArrayEquals(new byte[0], gunzip(gzip(new byte[0], 2, null)));
+    }
+
+    @Test
+    public void singleBytes() throws IOException {
+        byte[] content = content(BLOCK_SIZE + 100);
+        var output = new ByteArrayOutputStream();
+        try (var gzip = new ParallelGZIPOutputStream(output, 2, 6, BLOCK_SIZE)) {
+            for (byte b : content) {
+                gzip.write(b);
+            }
+        }
+        assertArrayEquals(content, gunzip(output.toByteArray()));
+    }
+
+    @Test
+    public void endBlock() throws IOException {
+        byte[] content = content(BLOCK_SIZE);
+        var output = new ByteArrayOutputStream();
+        try (var gzip = new ParallelGZIPOutputStream(output, 2, 6, BLOCK_SIZE)) {
+            gzip.write(content, 0, 100);
+            gzip.endBlock();
+            gzip.write(content, 100, content.length - 100);
+        }
+        assertArrayEquals(content, gunzip(output.toByteArray()));
+    }
+
+    @Test
+    public void independentBlocks() throws IOException {
+        record Block(long uncompressedOffset, long compressedOffset) {
+        }
+
+        byte[] content = content(8 * BLOCK_SIZE + 5);
+        List<Block> blocks = new ArrayList<>();
+        byte[] compressed = gzip(content, 4, (uncompressedOffset, compressedOffset, compressedLength) ->
+                blocks.add(new Block(uncompressedOffset, compressedOffset)));
+
+        assertArrayEquals(content, gunzip(compressed));
+        assertEquals(9, blocks.size());
+        assertEquals(0L, blocks.getFirst().uncompressedOffset());
+
+        // Inflating can start at any block
+        for (Block block : blocks) {
+            var inflater = new Inflater(true);
+            try (var input = new InflaterInputStream(new ByteArrayInputStream(compressed, (int) block.compressedOffset(),
+                    compressed.length - (int) block.compressedOffset()), inflater)) {
+                byte[] expected = Arrays.copyOfRange(content, (int) block.uncompressedOffset(), content.length);
+                assertArrayEquals(expected, input.readNBytes(expected.length));
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    @Test
+    public void writeAfterClose() throws IOException {
+        var gzip = new ParallelGZIPOutputStream(new ByteArrayOutputStream(), 1);
+        gzip.close();
+        assertThrows(IOException.class, () -> gzip.write(1));
+    }
+}
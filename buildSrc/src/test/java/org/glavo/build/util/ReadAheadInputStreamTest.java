@@ -0,0 +1,160 @@
+package org.glavo.build.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadAheadInputStreamTest {
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    // An endless source that records how much was read and whether it was closed
+    private static final class EndlessInputStream extends InputStream {
+        final AtomicLong bytesRead = new AtomicLong();
+        volatile boolean closed = false;
+
+        @Override
+        public int read() {
+            bytesRead.incrementAndGet();
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            bytesRead.addAndGet(len);
+            return len;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static final class FailingInputStream extends InputStream {
+        private final InputStream content;
+
+        FailingInputStream(byte[] content) {
+            this.content = new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = content.read();
+            if (b < 0) {
+                throw new IOException("Broken source");
+            }
+            return b;
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] content = content(100_000);
+        try (var input = new ReadAheadInputStream(new ByteArrayInputStream(content), "test", 1000, 2)) {
+            var output = new ByteArrayOutputStream();
+            // Single bytes and partial chunks
+            output.write(input.read());
+            byte[] buffer = new byte[777];
+            int n;
+            while ((n = input.read(buffer, 0, buffer.length)) >= 0) {
+                output.write(buffer, 0, n);
+            }
+            assertArrayEquals(content, output.toByteArray());
+            assertEquals(-1, input.read());
+        }
+    }
+
+    @Test
+    public void chunkSizedContent() throws IOException {
+        byte[] content = content(4000);
+        try (var input = new ReadAheadInputStream(new ByteArrayInputStream(content), "test", 1000, 2)) {
+            assertArrayEquals(content, input.readAllBytes());
+        }
+    }
+
+    @Test
+    public void empty() throws IOException {
+        try (var input = new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), "test")) {
+            assertEquals(-1, input.read());
+        }
+    }
+
+    @Test
+    public void sourceFailure() throws IOException {
+        byte[] content = content(5000);
+        try (var input = new ReadAheadInputStream(new FailingInputStream(content), "test", 1000, 2)) {
+            // The chunks before the failure are still delivered
+            assertArrayEquals(content, input.readNBytes(content.length));
+            IOException exception = assertThrows(IOException.class, input::read);
+            assertEquals("Broken source", exception.getMessage());
+            // The stream stays at its end
+            assertEquals(-1, input.read());
+        }
+    }
+
+    @Test
+    public void closeStopsReader() throws Exception {
+        var source = new EndlessInputStream();
+        var input = new ReadAheadInputStream(source, "test", 1000, 2);
+        assertEquals(1000, input.readNBytes(1000).length);
+        input.close();
+
+        assertTrue(source.closed);
+        long bytesRead = source.bytesRead.get();
+        Thread.sleep(100);
+        assertEquals(bytesRead, source.bytesRead.get());
+
+        assertThrows(IOException.class, input::read);
+    }
+
+    @Test
+    public void broadcast() throws IOException {
+        byte[] content = content(1024 * 1024 + 1);
+        List<ReadAheadInputStream> consumers = ReadAheadInputStream.broadcast(new ByteArrayInputStream(content), "test", 3);
+        assertEquals(3, consumers.size());
+        for (ReadAheadInputStream consumer : consumers) {
+            try (consumer) {
+                assertArrayEquals(content, consumer.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    public void broadcastSourceFailure() throws IOException {
+        // Every consumer sees the failure
+        for (ReadAheadInputStream consumer : ReadAheadInputStream.broadcast(new FailingInputStream(content(5000)), "test", 2)) {
+            try (consumer) {
+                assertThrows(IOException.class, consumer::readAllBytes);
+            }
+        }
+    }
+
+    @Test
+    public void broadcastCloseOneConsumer() throws Exception {
+        var source = new EndlessInputStream();
+        List<ReadAheadInputStream> consumers = ReadAheadInputStream.broadcast(source, "test", 2);
+
+        // The remaining consumer keeps receiving data
+        consumers.get(0).close();
+        assertEquals(10 * 1024 * 1024, consumers.get(1).readNBytes(10 * 1024 * 1024).length);
+        assertFalse(source.closed);
+
+        consumers.get(1).close();
+        assertTrue(source.closed);
+        long bytesRead = source.bytesRead.get();
+        Thread.sleep(100);
+        assertEquals(bytesRead, source.bytesRead.get());
+    }
+}
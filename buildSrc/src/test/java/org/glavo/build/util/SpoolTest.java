@@ -0,0 +1,140 @@
+package org.glavo.build.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpoolTest {
+    private static final int MEMORY_THRESHOLD = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void write(Spool spool, byte[] content) throws IOException {
+        try (var output = spool.openOutput()) {
+            for (int offset = 0; offset < content.length; offset += 1000) {
+                output.write(content, offset, Math.min(1000, content.length - offset));
+            }
+        }
+    }
+
+    private static byte[] readChannel(Spool spool) throws IOException {
+        try (var channel = spool.openChannel()) {
+            var buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException();
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    private static byte[] copy(Spool spool) throws IOException {
+        var output = new ByteArrayOutputStream();
+        try (var buffer = new IOBuffer()) {
+            spool.copyTo(output, buffer);
+        }
+        return output.toByteArray();
+    }
+
+    private long filesInTempDir() throws IOException {
+        try (var files = Files.list(tempDir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void inMemory() throws IOException {
+        byte[] content = content(MEMORY_THRESHOLD);
+        try (var spool = new Spool(tempDir, MEMORY_THRESHOLD)) {
+            write(spool, content);
+            assertFalse(spool.isSpilled());
+            assertEquals(content.length, spool.size());
+            assertArrayEquals(content, copy(spool));
+            assertArrayEquals(content, readChannel(spool));
+        }
+        assertEquals(0, filesInTempDir());
+    }
+
+    @Test
+    public void spilled() throws IOException {
+        byte[] content = content(MEMORY_THRESHOLD * 3 + 17);
+        try (var spool = new Spool(tempDir, MEMORY_THRESHOLD)) {
+            write(spool, content);
+            assertTrue(spool.isSpilled());
+            assertEquals(content.length, spool.size());
+            assertArrayEquals(content, copy(spool));
+            assertArrayEquals(content, readChannel(spool));
+        }
+        // The temp file is deleted on close
+        assertEquals(0, filesInTempDir());
+    }
+
+    @Test
+    public void singleBytes() throws IOException {
+        byte[] content = content(MEMORY_THRESHOLD + 1);
+        try (var spool = new Spool(tempDir, MEMORY_THRESHOLD)) {
+            try (var output = spool.openOutput()) {
+                for (byte b : content) {
+                    output.write(b);
+                }
+            }
+            assertTrue(spool.isSpilled());
+            assertArrayEquals(content, copy(spool));
+        }
+    }
+
+    @Test
+    public void empty() throws IOException {
+        try (var spool = new Spool(tempDir, MEMORY_THRESHOLD)) {
+            spool.openOutput().close();
+            assertEquals(0, spool.size());
+            assertArrayEquals(new byte[0], copy(spool));
+        }
+    }
+
+    @Test
+    public void sizeBeforeClose() throws IOException {
+        try (var spool = new Spool(tempDir, MEMORY_THRESHOLD)) {
+            var output = spool.openOutput();
+            output.write(1);
+            assertThrows(IllegalStateException.class, spool::size);
+            output.close();
+            assertEquals(1, spool.size());
+        }
+    }
+
+    @Test
+    public void closedBeforeOutput() throws IOException {
+        var spool = new Spool(tempDir, MEMORY_THRESHOLD);
+        var output = spool.openOutput();
+        output.write(content(MEMORY_THRESHOLD * 2));
+        spool.close();
+        assertThrows(IOException.class, () -> output.write(1));
+        assertEquals(0, filesInTempDir());
+    }
+
+    @Test
+    public void outputOpenedTwice() throws IOException {
+        try (var spool = new Spool(tempDir, MEMORY_THRESHOLD)) {
+            spool.openOutput().close();
+            assertThrows(IllegalStateException.class, spool::openOutput);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.glavo.build.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TailBufferTest {
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] read(TailBuffer tail, long position, int length) throws IOException {
+        try (var channel = tail.openChannel()) {
+            channel.position(position);
+            var buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    @Test
+    public void complete() throws IOException {
+        byte[] content = content(1000);
+        var tail = new TailBuffer(1000);
+        tail.write(content);
+        assertTrue(tail.isComplete());
+        assertEquals(1000, tail.size());
+        assertArrayEquals(content, read(tail, 0, 1000));
+        assertArrayEquals(Arrays.copyOfRange(content, 990, 1000), read(tail, 990, 100));
+    }
+
+    @Test
+    public void tail() throws IOException {
+        byte[] content = content(10_000);
+        var tail = new TailBuffer(1000);
+        // Uneven writes wrap around the buffer at different positions
+        for (int offset = 0; offset < content.length; offset += 333) {
+            tail.write(content, offset, Math.min(333, content.length - offset));
+        }
+        tail.write(42);
+
+        assertFalse(tail.isComplete());
+        assertEquals(10_001, tail.size());
+        try (var channel = tail.openChannel()) {
+            assertEquals(10_001, channel.size());
+        }
+
+        // The content keeps its original positions
+        byte[] expected = Arrays.copyOf(Arrays.copyOfRange(content, 9001, 10_000), 1000);
+        expected[999] = 42;
+        assertArrayEquals(expected, read(tail, 9001, 1000));
+        assertThrows(IOException.class, () -> read(tail, 9000, 10));
+    }
+
+    @Test
+    public void writeLargerThanCapacity() throws IOException {
+        byte[] content = content(5000);
+        var tail = new TailBuffer(1000);
+        tail.write(content, 1, 4999);
+        assertEquals(4999, tail.size());
+        assertArrayEquals(Arrays.copyOfRange(content, 4000, 5000), read(tail, 3999, 1000));
+    }
+}
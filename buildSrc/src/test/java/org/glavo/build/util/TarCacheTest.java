@@ -0,0 +1,155 @@
+package org.glavo.build.util;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TarCacheTest {
+    @TempDir
+    Path tempDir;
+
+    private static byte[] content(int seed, int size) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private Path gzip(String name, byte[] content) throws IOException {
+        Path file = tempDir.resolve(name);
+        try (var output = new GZIPOutputStream(Files.newOutputStream(file))) {
+            output.write(content);
+        }
+        return file;
+    }
+
+    private static byte[] fill(TarCache cache, Path archive) throws IOException {
+        try (var input = cache.fill(archive)) {
+            return input.readAllBytes();
+        }
+    }
+
+    private static byte @Nullable [] readCached(TarCache cache, Path archive) throws IOException {
+        try (FileChannel channel = cache.getCached(archive)) {
+            return channel != null ? Channels.newInputStream(channel).readAllBytes() : null;
+        }
+    }
+
+    // The single inflated tar in the cache
+    private static Path cachedFile(Path cacheDir) throws IOException {
+        try (var files = Files.list(cacheDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".tar")).findFirst().orElseThrow();
+        }
+    }
+
+    private long tempFiles(Path cacheDir) throws IOException {
+        try (var files = Files.list(cacheDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".tmp")).count();
+        }
+    }
+
+    @Test
+    public void fillAndLookUp() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        var cache = new TarCache(cacheDir, TarCache.DEFAULT_MAX_SIZE);
+        byte[] content = content(0, 100_000);
+        Path archive = gzip("a.tar.gz", content);
+
+        assertNull(readCached(cache, archive));
+        assertArrayEquals(content, fill(cache, archive));
+
+        assertArrayEquals(content, readCached(cache, archive));
+        assertEquals(0, tempFiles(cacheDir));
+
+        // A changed archive is not looked up by the old key
+        Files.setLastModifiedTime(archive, FileTime.fromMillis(Files.getLastModifiedTime(archive).toMillis() - 10_000));
+        assertNull(readCached(cache, archive));
+    }
+
+    @Test
+    public void drainOnClose() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        var cache = new TarCache(cacheDir, TarCache.DEFAULT_MAX_SIZE);
+        byte[] content = content(0, 100_000);
+        Path archive = gzip("a.tar.gz", content);
+
+        // The reader stops early, but the rest of the archive is small enough to be drained
+        try (var input = cache.fill(archive)) {
+            assertEquals(1000, input.readNBytes(1000).length);
+        }
+        assertArrayEquals(content, readCached(cache, archive));
+    }
+
+    @Test
+    public void partialArchiveDropped() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        var cache = new TarCache(cacheDir, TarCache.DEFAULT_MAX_SIZE);
+        Path archive = gzip("a.tar.gz", content(0, 8 * 1024 * 1024));
+
+        try (var input = cache.fill(archive)) {
+            assertEquals(1000, input.readNBytes(1000).length);
+        }
+        assertNull(readCached(cache, archive));
+        assertEquals(0, tempFiles(cacheDir));
+    }
+
+    @Test
+    public void uncompressedTar() throws IOException {
+        Path archive = tempDir.resolve("a.tar");
+        try (var tar = new TarArchiveOutputStream(Files.newOutputStream(archive))) {
+            var entry = new TarArchiveEntry("a.txt");
+            entry.setSize(1);
+            tar.putArchiveEntry(entry);
+            tar.write('a');
+            tar.closeArchiveEntry();
+        }
+        assertArrayEquals(Files.readAllBytes(archive), readCached(new TarCache(tempDir.resolve("cache"), TarCache.DEFAULT_MAX_SIZE), archive));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        // Room for two inflated archives
+        Path cacheDir = tempDir.resolve("cache");
+        var cache = new TarCache(cacheDir, 250_000);
+        Path a = gzip("a.tar.gz", content(0, 100_000));
+        Path b = gzip("b.tar.gz", content(1, 100_000));
+        Path c = gzip("c.tar.gz", content(2, 100_000));
+
+        fill(cache, a);
+        Files.setLastModifiedTime(cachedFile(cacheDir), FileTime.fromMillis(1000));
+        fill(cache, b);
+        fill(cache, c);
+
+        assertNull(readCached(cache, a));
+        assertArrayEquals(content(1, 100_000), readCached(cache, b));
+        assertArrayEquals(content(2, 100_000), readCached(cache, c));
+    }
+
+    @Test
+    public void openChannelSurvivesEviction() throws IOException {
+        // Room for one inflated archive
+        var cache = new TarCache(tempDir.resolve("cache"), 150_000);
+        Path a = gzip("a.tar.gz", content(0, 100_000));
+        Path b = gzip("b.tar.gz", content(1, 100_000));
+
+        fill(cache, a);
+        try (FileChannel channel = cache.getCached(a)) {
+            assertNotNull(channel);
+            fill(cache, b);
+            assertNull(readCached(cache, a));
+            assertArrayEquals(content(0, 100_000), Channels.newInputStream(channel).readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.glavo.build.util;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TarIndexTest {
+    @TempDir
+    Path tempDir;
+
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void addFile(TarArchiveOutputStream tar, TarIndex.Writer index, String name, byte[] content) throws IOException {
+        var entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        entry.setMode(0100755);
+        tar.putArchiveEntry(entry);
+        index.addEntry(entry, tar.getBytesWritten());
+        tar.write(content);
+        tar.closeArchiveEntry();
+    }
+
+    private static void addEntry(TarArchiveOutputStream tar, TarIndex.Writer index, TarArchiveEntry entry) throws IOException {
+        tar.putArchiveEntry(entry);
+        index.addEntry(entry, tar.getBytesWritten());
+        tar.closeArchiveEntry();
+    }
+
+    private Path writeArchive() throws IOException {
+        Path archive = tempDir.resolve("test.tar.gz");
+        var index = new TarIndex.Writer();
+        try (var gzip = new ParallelGZIPOutputStream(Files.newOutputStream(archive), 2, 6, 32 * 1024)) {
+            gzip.setIndependentBlocks(true);
+            gzip.setBlockListener(index);
+
+            try (var tar = new TarArchiveOutputStream(gzip)) {
+                tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+
+                addEntry(tar, index, new TarArchiveEntry("ide/"));
+                addFile(tar, index, "ide/small.txt", "small".getBytes(StandardCharsets.UTF_8));
+                addFile(tar, index, "ide/large.bin", content(200 * 1024));
+                addFile(tar, index, "ide/name with spaces\\and\nnewline", content(10));
+
+                var symlink = new TarArchiveEntry("ide/link", TarConstants.LF_SYMLINK);
+                symlink.setLinkName("target with space");
+                addEntry(tar, index, symlink);
+
+                var hardLink = new TarArchiveEntry("ide/hard", TarConstants.LF_LINK);
+                hardLink.setLinkName("ide/small.txt");
+                addEntry(tar, index, hardLink);
+            }
+        }
+        index.write(archive);
+        return archive;
+    }
+
+    @Test
+    public void readEntries() throws IOException {
+        Path archive = writeArchive();
+        TarIndex index = TarIndex.load(archive);
+
+        assertEquals(List.of("ide/", "ide/small.txt", "ide/large.bin", "ide/name with spaces\\and\nnewline", "ide/link", "ide/hard"),
+                index.getEntries().stream().map(TarIndex.Entry::name).toList());
+
+        assertArrayEquals("small".getBytes(StandardCharsets.UTF_8), index.readEntry("ide/small.txt"));
+        assertArrayEquals(content(200 * 1024), index.readEntry("ide/large.bin"));
+        assertArrayEquals(content(10), index.readEntry("ide/name with spaces\\and\nnewline"));
+
+        TarIndex.Entry small = index.getEntry("ide/small.txt");
+        assertNotNull(small);
+        assertTrue(small.isFile());
+        assertEquals(0755, small.mode());
+        assertEquals(5, small.size());
+        assertNull(small.linkName());
+    }
+
+    @Test
+    public void links() throws IOException {
+        TarIndex index = TarIndex.load(writeArchive());
+
+        TarIndex.Entry symlink = index.getEntry("ide/link");
+        assertNotNull(symlink);
+        assertEquals('l', symlink.type());
+        assertEquals("target with space", symlink.linkName());
+
+        TarIndex.Entry hardLink = index.getEntry("ide/hard");
+        assertNotNull(hardLink);
+        assertEquals('h', hardLink.type());
+        assertEquals("ide/small.txt", hardLink.linkName());
+
+        assertThrows(IOException.class, () -> index.readEntry("ide/link"));
+    }
+
+    @Test
+    public void subtree() throws IOException {
+        TarIndex index = TarIndex.load(writeArchive());
+        assertEquals(6, index.getSubtree("ide").size());
+        assertEquals(0, index.getSubtree("ide/small").size());
+    }
+
+    @Test
+    public void staleIndex() throws IOException {
+        Path archive = writeArchive();
+
+        // The same size, but a different CRC-32 in the gzip trailer
+        byte[] bytes = Files.readAllBytes(archive);
+        bytes[bytes.length - 8] ^= 1;
+        Files.write(archive, bytes);
+
+        assertThrows(IOException.class, () -> TarIndex.load(archive));
+    }
+
+    @Test
+    public void escape() throws IOException {
+        for (String value : List.of("plain", "a b", "back\\slash", "line\nbreak\r", "\\s", "")) {
+            String escaped = TarIndex.escape(value);
+            assertFalse(escaped.contains(" ") || escaped.contains("\n") || escaped.contains("\r"), escaped);
+            assertEquals(value, TarIndex.unescape(escaped));
+        }
+        assertThrows(IOException.class, () -> TarIndex.unescape("trailing\\"));
+        assertThrows(IOException.class, () -> TarIndex.unescape("\\x"));
+    }
+}
@@ -0,0 +1,108 @@
+package org.glavo.build.util;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UtilsTest {
+    private static final long SOURCE_DATE_EPOCH = 1700000000L;
+
+    @TempDir
+    Path tempDir;
+
+    private static TarArchiveEntry entry(long mtime) {
+        var entry = new TarArchiveEntry("ide/bin/idea.sh");
+        entry.setMode(0100755);
+        entry.setSize(42);
+        entry.setLastModifiedTime(FileTime.from(mtime, TimeUnit.SECONDS));
+        entry.setLastAccessTime(FileTime.from(mtime + 1, TimeUnit.SECONDS));
+        entry.setCreationTime(FileTime.from(mtime - 1, TimeUnit.SECONDS));
+        entry.setUserId(1000);
+        entry.setGroupId(1000);
+        entry.setUserName("builder");
+        entry.setGroupName("builder");
+        return entry;
+    }
+
+    @Test
+    public void normalizeTarEntry() {
+        var entry = entry(SOURCE_DATE_EPOCH + 100);
+        Utils.normalizeTarEntry(entry, SOURCE_DATE_EPOCH);
+
+        assertEquals(FileTime.from(SOURCE_DATE_EPOCH, TimeUnit.SECONDS), entry.getLastModifiedTime());
+        assertNull(entry.getLastAccessTime());
+        assertNull(entry.getCreationTime());
+        assertNull(entry.getStatusChangeTime());
+        assertEquals(0, entry.getLongUserId());
+        assertEquals(0, entry.getLongGroupId());
+        assertEquals("root", entry.getUserName());
+        assertEquals("root", entry.getGroupName());
+
+        // The name, mode and size are kept
+        assertEquals("ide/bin/idea.sh", entry.getName());
+        assertEquals(0100755, entry.getMode());
+        assertEquals(42, entry.getSize());
+    }
+
+    @Test
+    public void normalizeTarEntryKeepsOlderTime() {
+        var entry = entry(SOURCE_DATE_EPOCH - 100);
+        Utils.normalizeTarEntry(entry, SOURCE_DATE_EPOCH);
+        assertEquals(FileTime.from(SOURCE_DATE_EPOCH - 100, TimeUnit.SECONDS), entry.getLastModifiedTime());
+    }
+
+    @Test
+    public void normalizeTarEntryIsIdempotent() {
+        var once = entry(SOURCE_DATE_EPOCH + 100);
+        Utils.normalizeTarEntry(once, SOURCE_DATE_EPOCH);
+        var twice = entry(SOURCE_DATE_EPOCH + 100);
+        Utils.normalizeTarEntry(twice, SOURCE_DATE_EPOCH);
+        Utils.normalizeTarEntry(twice, SOURCE_DATE_EPOCH);
+        assertEquals(once.getLastModifiedTime(), twice.getLastModifiedTime());
+        assertEquals(once.getUserName(), twice.getUserName());
+    }
+
+    @Test
+    public void sha256() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("abc"), "abc", StandardCharsets.UTF_8);
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", Utils.sha256(file));
+
+        Path empty = Files.write(tempDir.resolve("empty"), new byte[0]);
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", Utils.sha256(empty));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        Path oldest = Files.write(tempDir.resolve("oldest"), new byte[100]);
+        Path kept = Files.write(tempDir.resolve("kept"), new byte[100]);
+        Path dir = Files.createDirectories(tempDir.resolve("dir"));
+        Files.write(dir.resolve("a"), new byte[60]);
+        Files.write(dir.resolve("b"), new byte[40]);
+        Path newest = Files.write(tempDir.resolve("newest"), new byte[100]);
+
+        Files.setLastModifiedTime(oldest, FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(kept, FileTime.fromMillis(2000));
+        Files.setLastModifiedTime(dir, FileTime.fromMillis(3000));
+        Files.setLastModifiedTime(newest, FileTime.fromMillis(4000));
+
+        // The kept entry still counts towards the size, so the directory goes as well
+        List<Path> evicted = Utils.evictLeastRecentlyUsed(List.of(newest, dir, kept, oldest), 250, kept::equals);
+        assertEquals(List.of(oldest, dir), evicted);
+        assertFalse(Files.exists(oldest));
+        assertFalse(Files.exists(dir));
+        assertTrue(Files.exists(kept));
+        assertTrue(Files.exists(newest));
+
+        assertEquals(List.of(), Utils.evictLeastRecentlyUsed(List.of(newest, kept), 250, path -> false));
+    }
+}